@@ -0,0 +1,201 @@
+package ru.miacomsoft.semantic;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Адаптивное ограничение количества одновременных запросов (AIMD).
+ *
+ * Пока текущая (сглаженная по последним ответам) задержка близка к долгосрочной,
+ * лимит растет примерно на единицу за каждые limit успешных запросов (аддитивное
+ * увеличение). Рост текущей задержки над долгосрочной означает очередь на сервере -
+ * лимит немного снижается. Ответы
+ * 429/502/503/504 и сетевые ошибки означают перегрузку - лимит уменьшается вдвое
+ * (мультипликативное уменьшение), не чаще одного раза за время ответа
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    // Текущая задержка выше долгосрочной во столько раз считается признаком очереди на сервере
+    private static final double LATENCY_TOLERANCE = 1.5;
+    private static final double BACKOFF_RATIO = 0.5;
+    // Вес нового замера в текущей и долгосрочной задержке
+    private static final double SHORT_SMOOTHING = 0.1;
+    private static final double LONG_SMOOTHING = 0.01;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition permitAvailable = lock.newCondition();
+
+    private double limit;
+    private int inFlight;
+    private int waiting;
+
+    private double shortLatencyNanos;
+    private double longLatencyNanos;
+    private long lastBackoffNanos;
+    // Отсчет System.nanoTime произволен: до первого снижения lastBackoffNanos не сравнивается
+    private boolean backedOff;
+
+    private long successes;
+    private long overloads;
+
+    public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.limit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+    }
+
+    /**
+     * Фиксированный лимит без адаптации
+     */
+    public static AdaptiveConcurrencyLimiter fixed(int limit) {
+        return new AdaptiveConcurrencyLimiter(limit, limit, limit);
+    }
+
+    /**
+     * Ожидает, пока количество запросов в полете не станет меньше текущего лимита
+     */
+    public void acquire() throws InterruptedException {
+        lock.lock();
+        try {
+            waiting++;
+            try {
+                while (inFlight >= (int) limit) {
+                    permitAvailable.await();
+                }
+            } finally {
+                waiting--;
+            }
+            inFlight++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Запрос завершился успешно за latencyNanos наносекунд
+     */
+    public void onSuccess(long latencyNanos) {
+        lock.lock();
+        try {
+            inFlight--;
+            successes++;
+
+            if (longLatencyNanos == 0) {
+                shortLatencyNanos = latencyNanos;
+                longLatencyNanos = latencyNanos;
+            } else {
+                shortLatencyNanos += SHORT_SMOOTHING * (latencyNanos - shortLatencyNanos);
+                longLatencyNanos += LONG_SMOOTHING * (latencyNanos - longLatencyNanos);
+                // Сервер ускорился - долгосрочная оценка сразу опускается до текущей
+                longLatencyNanos = Math.min(longLatencyNanos, Math.max(shortLatencyNanos, latencyNanos));
+            }
+
+            if (shortLatencyNanos <= longLatencyNanos * LATENCY_TOLERANCE) {
+                // Растем, только если лимит действительно используется
+                if (inFlight + 1 >= (int) limit) {
+                    limit = Math.min(maxLimit, limit + 1.0 / limit);
+                }
+            } else {
+                limit = Math.max(minLimit, limit - 1.0 / limit);
+            }
+            permitAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Сервер перегружен (HTTP 429/502/503/504, таймаут, сетевая ошибка)
+     */
+    public void onOverload() {
+        lock.lock();
+        try {
+            inFlight--;
+            overloads++;
+
+            // Одновременные отказы одного эпизода перегрузки уменьшают лимит один раз
+            long now = System.nanoTime();
+            if (!backedOff || now - lastBackoffNanos >= (long) shortLatencyNanos) {
+                limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+                lastBackoffNanos = now;
+                backedOff = true;
+                System.out.println("Сервер эмбеддингов перегружен, лимит одновременных запросов: " + (int) limit);
+            }
+            permitAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Запрос не был отправлен или завершился ошибкой, не связанной с нагрузкой
+     */
+    public void onIgnore() {
+        lock.lock();
+        try {
+            inFlight--;
+            permitAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Текущий лимит одновременных запросов
+     */
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Количество потоков, ожидающих разрешения на запрос
+     */
+    public int getQueueDepth() {
+        lock.lock();
+        try {
+            return waiting;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Статистика: лимит, запросы в полете, очередь, задержки, перегрузки
+     */
+    public Map<String, Object> getStats() {
+        lock.lock();
+        try {
+            Map<String, Object> stats = new HashMap<>();
+            stats.put("limit", (int) limit);
+            stats.put("minLimit", minLimit);
+            stats.put("maxLimit", maxLimit);
+            stats.put("inFlight", inFlight);
+            stats.put("queueDepth", waiting);
+            stats.put("latencyMs", shortLatencyNanos / 1_000_000.0);
+            stats.put("longTermLatencyMs", longLatencyNanos / 1_000_000.0);
+            stats.put("successes", successes);
+            stats.put("overloads", overloads);
+            return stats;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -23,6 +23,8 @@ public class BatchBookProcessor {
         ConfigLoader configLoader = new ConfigLoader("application.properties");
         SemanticChunker semanticChunker = new SemanticChunker(configLoader);
         DocumentChunker documentChunker = new DocumentChunker(configLoader, semanticChunker);
+        // Первичная загрузка через COPY (rag.db.bulk-copy)
+        DocumentBulkLoader bulkLoader = configLoader.isDbBulkCopyEnabled() ? new DocumentBulkLoader(configLoader) : null;
 
         // Поиск книг в директории
         List<Path> bookFiles = findBookFiles(Paths.get(booksDirectory), textExtensions);
@@ -39,6 +41,7 @@ public class BatchBookProcessor {
 
         // Обработка каждой книги
         int totalChunks = 0;
+        long loadStart = System.nanoTime();
 
         for (Path bookFile : bookFiles) {
             try {
@@ -46,29 +49,44 @@ public class BatchBookProcessor {
                 System.out.println("ОБРАБОТКА: " + bookFile.getFileName());
                 System.out.println("=".repeat(80));
 
-                // Чтение книги
-                String content = Files.readString(bookFile);
-                System.out.println("Размер: " + content.length() + " символов");
-
-                // Семантическое чанкинг
-                List<SemanticChunker.Chunk> chunks =
-                        semanticChunker.semanticChunking(content, 800);
-
-                System.out.println("Создано чанков: " + chunks.size());
+                System.out.println("Размер: " + Files.size(bookFile) + " байт");
 
                 // Генерация уникального clientId для книги
                 String clientId = "book_" +
                         bookFile.getFileName().toString()
                                 .replaceAll("[^a-zA-Z0-9]", "_")
                                 .toLowerCase();
+                String sourceFileName = bookFile.getFileName().toString();
 
                 // Очистка старых данных для этой книги
                 documentChunker.clearDocuments(clientId);
 
-                // Сохранение в базу данных
-                documentChunker.addDocuments(chunks, clientId, bookFile.getFileName().toString());
+                // Конвейер загрузки: книга не загружается в память целиком, чанки сохраняются
+                // в базу данных, пока следующие предложения еще отправляются на эмбеддинг
+                int chunkCount;
+                if (bulkLoader != null) {
+                    // Поток COPY во временную таблицу, перенос в основные таблицы после книги
+                    try (DocumentBulkLoader.Session session = bulkLoader.open(clientId, sourceFileName)) {
+                        IngestPipeline pipeline = IngestPipeline.fromConfig(configLoader, semanticChunker, batch -> {
+                            for (SemanticChunker.Chunk chunk : batch) {
+                                session.add(chunk);
+                            }
+                            return batch.size();
+                        }, 800);
+                        pipeline.run(bookFile);
+                        chunkCount = pipeline.getChunkCount();
+                        session.finish();
+                    }
+                } else {
+                    IngestPipeline pipeline = IngestPipeline.fromConfig(configLoader, semanticChunker,
+                            batch -> documentChunker.addDocuments(batch, clientId, sourceFileName), 800);
+                    pipeline.run(bookFile);
+                    chunkCount = pipeline.getChunkCount();
+                }
+
+                System.out.println("Создано чанков: " + chunkCount);
 
-                totalChunks += chunks.size();
+                totalChunks += chunkCount;
 
                 System.out.println("✓ Книга успешно загружена в базу данных");
 
@@ -83,11 +101,23 @@ public class BatchBookProcessor {
         System.out.println("=".repeat(80));
         System.out.println("Обработано книг: " + bookFiles.size());
         System.out.println("Всего чанков в базе: " + totalChunks);
+        double loadSeconds = Math.max(1e-9, (System.nanoTime() - loadStart) / 1e9);
+        System.out.printf("Время загрузки: %.1f с (%.0f чанков/с, %s)%n", loadSeconds, totalChunks / loadSeconds,
+                bulkLoader != null ? "COPY" : "addDocuments");
         System.out.println("Общее количество документов в базе: " +
                 documentChunker.getDocumentCount());
 
         // Тестовый поиск по всем книгам
         testCrossBookSearch(documentChunker);
+
+        // Сохраняем постоянный кэш эмбеддингов на диск
+        try {
+            semanticChunker.close();
+        } catch (IOException e) {
+            System.err.println("Ошибка при закрытии кэша эмбеддингов: " + e.getMessage());
+        }
+        System.out.println("Пул соединений: " + documentChunker.getPoolStats());
+        documentChunker.close();
     }
 
     /**
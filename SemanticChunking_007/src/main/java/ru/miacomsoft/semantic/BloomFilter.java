@@ -0,0 +1,85 @@
+package ru.miacomsoft.semantic;
+
+/**
+ * Фильтр Блума для хэшей текстов документов (SHA-256).
+ *
+ * mightContain == false означает, что хэш точно не добавлялся; true - что, возможно,
+ * добавлялся (ложные срабатывания с вероятностью около falsePositiveRate, пока
+ * добавлено не больше expectedItems хэшей). Позиции битов берутся из первых 16 байт
+ * хэша двойным хэшированием, поэтому повторно хэшировать не нужно
+ */
+public final class BloomFilter {
+
+    private final long[] bits;
+    private final long bitCount;
+    private final int hashCount;
+    private final long expectedItems;
+    private long items;
+
+    public BloomFilter(long expectedItems, double falsePositiveRate) {
+        this.expectedItems = Math.max(1, expectedItems);
+        double rate = Math.min(0.5, Math.max(1e-9, falsePositiveRate));
+        // Оптимальные размер и количество хэш-функций: m = -n ln p / (ln 2)^2, k = m / n * ln 2
+        long optimalBits = (long) Math.ceil(-this.expectedItems * Math.log(rate) / (Math.log(2) * Math.log(2)));
+        this.bits = new long[(int) Math.min(Integer.MAX_VALUE - 8, (Math.max(64, optimalBits) + 63) >>> 6)];
+        this.bitCount = (long) bits.length << 6;
+        this.hashCount = (int) Math.max(1, Math.round((double) bitCount / this.expectedItems * Math.log(2)));
+    }
+
+    /**
+     * Добавляет хэш (не короче 16 байт). Хэш, все биты которого уже установлены
+     * (повтор или ложное срабатывание), не учитывается в size и isSaturated
+     */
+    public synchronized void add(byte[] hash) {
+        long h1 = readLong(hash, 0);
+        long h2 = readLong(hash, 8);
+        boolean changed = false;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = Math.floorMod(h1 + i * h2, bitCount);
+            int word = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            if ((bits[word] & mask) == 0) {
+                bits[word] |= mask;
+                changed = true;
+            }
+        }
+        if (changed) {
+            items++;
+        }
+    }
+
+    public synchronized boolean mightContain(byte[] hash) {
+        long h1 = readLong(hash, 0);
+        long h2 = readLong(hash, 8);
+        for (int i = 0; i < hashCount; i++) {
+            long bit = Math.floorMod(h1 + i * h2, bitCount);
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Добавлено больше хэшей, чем рассчитан фильтр: доля ложных срабатываний растет
+     */
+    public synchronized boolean isSaturated() {
+        return items > expectedItems;
+    }
+
+    public synchronized long size() {
+        return items;
+    }
+
+    public long estimateBytes() {
+        return 8L * bits.length;
+    }
+
+    private static long readLong(byte[] data, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (data[offset + i] & 0xFF);
+        }
+        return value;
+    }
+}
@@ -21,17 +21,16 @@ public class BookProcessor {
         SemanticChunker semanticChunker = new SemanticChunker(configLoader);
         DocumentChunker documentChunker = new DocumentChunker(configLoader, semanticChunker);
 
-        // 3. Чтение книги
+        // 3. Проверка книги (сам текст читается потоково при чанкинге)
         System.out.println("Чтение книги: " + bookPath);
-        String bookContent = readBookFromFile(path);
+        long bookSize = getBookSize(path);
 
-        if (bookContent == null || bookContent.trim().isEmpty()) {
+        if (bookSize <= 0) {
             System.err.println("Ошибка: книга не найдена или пуста");
             return;
         }
 
-        System.out.println("Размер книги: " + bookContent.length() + " символов");
-        System.out.println("Примерное количество слов: " + bookContent.split("\\s+").length);
+        System.out.println("Размер книги: " + bookSize + " байт");
 
         // 4. Очистка старых данных для этой книги
         try (Scanner scanner = new Scanner(System.in)) {
@@ -44,33 +43,30 @@ public class BookProcessor {
             }
         }
 
-        // 5. Разбиение книги на семантические чанки
-        System.out.println("\nНачало семантического чанкинга книги...");
+        // 5. Разбиение книги на семантические чанки и сохранение в базу данных
+        System.out.println("\nНачало семантического чанкинга книги и сохранения в базу данных...");
 
         long startTime = System.currentTimeMillis();
 
         try {
-            // Выполняем семантическое чанкинг книги
-            List<SemanticChunker.Chunk> chunks = semanticChunker.semanticChunking(bookContent, 800);
-
-            System.out.println("✓ Книга разбита на " + chunks.size() + " семантических чанков");
-
-            // 6. Сохранение чанков в базу данных
-            System.out.println("\nСохранение чанков в базу данных...");
-
-            int savedCount = saveBookChunksToDatabase(documentChunker, chunks, bookPath);
+            // Конвейер: чтение, предложения, эмбеддинги, чанки и запись в базу идут одновременно
+            String bookName = getBookNameFromPath(bookPath);
+            IngestPipeline pipeline = IngestPipeline.fromConfig(configLoader, semanticChunker,
+                    batch -> documentChunker.addDocuments(batch, "book_java_modern", bookName), 800);
+            int savedCount = pipeline.run(path);
 
             long endTime = System.currentTimeMillis();
             long duration = (endTime - startTime) / 1000;
 
-            System.out.println("\n✓ Обработка завершена за " + duration + " секунд");
-            System.out.println("✓ Сохранено " + savedCount + " чанков из " + chunks.size());
+            System.out.println("\n✓ Книга разбита на " + pipeline.getChunkCount() + " семантических чанков");
+            System.out.println("✓ Обработка завершена за " + duration + " секунд");
+            System.out.println("✓ Сохранено " + savedCount + " чанков из " + pipeline.getChunkCount());
 
-            // 7. Статистика базы данных
+            // 6. Статистика базы данных
             int totalDocs = documentChunker.getDocumentCount();
             System.out.println("Всего документов в базе: " + totalDocs);
 
-            // 8. Пример поиска и формирования контекста
+            // 7. Пример поиска и формирования контекста
             demonstrateSearchAndContext(documentChunker);
 
         } catch (Exception e) {
@@ -80,57 +76,17 @@ public class BookProcessor {
     }
 
     /**
-     * Чтение книги из файла
+     * Размер файла книги в байтах (0, если файл недоступен)
      */
-    private static String readBookFromFile(Path filePath) {
+    private static long getBookSize(Path filePath) {
         try {
-            System.out.println("Чтение файла...");
-            return Files.readString(filePath);
+            return Files.size(filePath);
         } catch (IOException e) {
             System.err.println("Ошибка при чтении файла: " + e.getMessage());
-            return null;
+            return 0;
         }
     }
 
-    /**
-     * Сохранение чанков книги в базу данных
-     */
-    private static int saveBookChunksToDatabase(DocumentChunker documentChunker,
-                                                List<SemanticChunker.Chunk> chunks,
-                                                String bookPath) {
-        int savedCount = 0;
-        int batchSize = 50; // Сохраняем пачками для отображения прогресса
-
-        System.out.println("Сохранение " + chunks.size() + " чанков...");
-
-        for (int i = 0; i < chunks.size(); i += batchSize) {
-            int end = Math.min(i + batchSize, chunks.size());
-            List<SemanticChunker.Chunk> batch = chunks.subList(i, end);
-
-            // Используем массивную загрузку через addDocuments
-            documentChunker.addDocuments(batch, "book_java_modern",
-                    getBookNameFromPath(bookPath));
-
-            savedCount += batch.size();
-
-            // Прогресс
-            double progress = ((double) savedCount / chunks.size()) * 100;
-            System.out.printf("Прогресс: %.1f%% (%d/%d чанков)%n",
-                    progress, savedCount, chunks.size());
-
-            // Небольшая пауза между пачками
-            if (end < chunks.size()) {
-                try {
-                    Thread.sleep(100);
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                }
-            }
-        }
-
-        return savedCount;
-    }
-
     /**
      * Извлечение имени книги из пути
      */
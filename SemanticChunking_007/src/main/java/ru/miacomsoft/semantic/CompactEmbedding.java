@@ -0,0 +1,229 @@
+package ru.miacomsoft.semantic;
+
+/**
+ * Эмбеддинг в компактном представлении для кэша и чанков.
+ *
+ * FLOAT32 - исходные float (4 байта на компоненту), FLOAT16 - половинная точность
+ * IEEE 754 (2 байта), INT8 - целые от -127 до 127 с общим для вектора масштабом
+ * (1 байт). Скалярное произведение, косинусное сходство и суммирование выполняются
+ * прямо над компактным представлением, норма вычисляется один раз при создании.
+ * Скалярное произведение FLOAT32 считает скалярное ядро SimilarityKernel (сумма в double),
+ * как и EmbeddingMatrix: сходства при группировке совпадают с прежними до бита
+ */
+public final class CompactEmbedding {
+
+    /**
+     * Формат хранения компонент вектора
+     */
+    public enum Storage {
+        FLOAT32, FLOAT16, INT8;
+
+        /**
+         * Формат по имени из конфигурации (float32 | float16 | int8)
+         */
+        public static Storage fromName(String name) {
+            return switch (name.trim().toLowerCase()) {
+                case "float32", "" -> FLOAT32;
+                case "float16", "half" -> FLOAT16;
+                case "int8" -> INT8;
+                default -> throw new IllegalArgumentException("Неизвестный формат хранения эмбеддингов: " + name);
+            };
+        }
+    }
+
+    private final Storage storage;
+    private final float[] floats;
+    private final short[] halves;
+    private final byte[] bytes;
+    // Множитель для INT8: значение компоненты = bytes[i] * scale
+    private final float scale;
+    private final double norm;
+
+    private CompactEmbedding(Storage storage, float[] floats, short[] halves, byte[] bytes, float scale) {
+        this.storage = storage;
+        this.floats = floats;
+        this.halves = halves;
+        this.bytes = bytes;
+        this.scale = scale;
+        this.norm = computeNorm();
+    }
+
+    /**
+     * Упаковывает вектор в заданный формат. Для FLOAT32 массив не копируется и не должен изменяться
+     */
+    public static CompactEmbedding of(float[] vector, Storage storage) {
+        switch (storage) {
+            case FLOAT16 -> {
+                short[] halves = new short[vector.length];
+                for (int i = 0; i < vector.length; i++) {
+                    halves[i] = Float.floatToFloat16(vector[i]);
+                }
+                return new CompactEmbedding(storage, null, halves, null, 0f);
+            }
+            case INT8 -> {
+                float maxAbs = 0f;
+                for (float value : vector) {
+                    maxAbs = Math.max(maxAbs, Math.abs(value));
+                }
+                float scale = maxAbs > 0 ? maxAbs / 127f : 0f;
+                byte[] bytes = new byte[vector.length];
+                if (scale > 0) {
+                    for (int i = 0; i < vector.length; i++) {
+                        bytes[i] = (byte) Math.round(vector[i] / scale);
+                    }
+                }
+                return new CompactEmbedding(storage, null, null, bytes, scale);
+            }
+            default -> {
+                return new CompactEmbedding(Storage.FLOAT32, vector, null, null, 0f);
+            }
+        }
+    }
+
+    public Storage getStorage() {
+        return storage;
+    }
+
+    public int dimensions() {
+        return switch (storage) {
+            case FLOAT32 -> floats.length;
+            case FLOAT16 -> halves.length;
+            case INT8 -> bytes.length;
+        };
+    }
+
+    /**
+     * Значение компоненты i
+     */
+    public float get(int i) {
+        return switch (storage) {
+            case FLOAT32 -> floats[i];
+            case FLOAT16 -> Float.float16ToFloat(halves[i]);
+            case INT8 -> bytes[i] * scale;
+        };
+    }
+
+    /**
+     * Норма вектора (вычислена при создании)
+     */
+    public double norm() {
+        return norm;
+    }
+
+    /**
+     * Распаковывает вектор в новый массив float
+     */
+    public float[] toFloatArray() {
+        if (storage == Storage.FLOAT32) {
+            return floats.clone();
+        }
+        float[] vector = new float[dimensions()];
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] = get(i);
+        }
+        return vector;
+    }
+
+    /**
+     * Скалярное произведение. Для двух INT8 векторов суммируются целые числа
+     */
+    public double dot(CompactEmbedding other) {
+        int dimensions = dimensions();
+        if (dimensions != other.dimensions()) {
+            throw new IllegalArgumentException("Векторы должны иметь одинаковую размерность");
+        }
+
+        if (storage == Storage.FLOAT32 && other.storage == Storage.FLOAT32) {
+            return SimilarityKernel.scalar().dot(floats, 0, other.floats, 0, dimensions);
+        }
+        if (storage == Storage.INT8 && other.storage == Storage.INT8) {
+            long dotProduct = 0;
+            for (int i = 0; i < dimensions; i++) {
+                dotProduct += bytes[i] * other.bytes[i];
+            }
+            return dotProduct * (double) scale * other.scale;
+        }
+
+        double dotProduct = 0.0;
+        for (int i = 0; i < dimensions; i++) {
+            dotProduct += get(i) * other.get(i);
+        }
+        return dotProduct;
+    }
+
+    /**
+     * Косинусное сходство; 0, если один из векторов нулевой
+     */
+    public double cosineSimilarity(CompactEmbedding other) {
+        double dotProduct = dot(other);
+        if (norm == 0 || other.norm == 0) {
+            return 0.0;
+        }
+        return dotProduct / (norm * other.norm);
+    }
+
+    /**
+     * Копирует компоненты в target начиная с offset
+     */
+    public void copyTo(float[] target, int offset) {
+        switch (storage) {
+            case FLOAT32 -> System.arraycopy(floats, 0, target, offset, floats.length);
+            case FLOAT16 -> {
+                for (int i = 0; i < halves.length; i++) {
+                    target[offset + i] = Float.float16ToFloat(halves[i]);
+                }
+            }
+            case INT8 -> {
+                for (int i = 0; i < bytes.length; i++) {
+                    target[offset + i] = bytes[i] * scale;
+                }
+            }
+        }
+    }
+
+    /**
+     * Прибавляет вектор к accumulator покомпонентно
+     */
+    public void addTo(float[] accumulator) {
+        switch (storage) {
+            case FLOAT32 -> {
+                for (int i = 0; i < accumulator.length; i++) {
+                    accumulator[i] += floats[i];
+                }
+            }
+            case FLOAT16 -> {
+                for (int i = 0; i < accumulator.length; i++) {
+                    accumulator[i] += Float.float16ToFloat(halves[i]);
+                }
+            }
+            case INT8 -> {
+                for (int i = 0; i < accumulator.length; i++) {
+                    accumulator[i] += bytes[i] * scale;
+                }
+            }
+        }
+    }
+
+    /**
+     * Приблизительный объем в куче: объект и массив компонент
+     */
+    public long estimateBytes() {
+        long header = 40 + 16;
+        return switch (storage) {
+            case FLOAT32 -> header + 4L * floats.length;
+            case FLOAT16 -> header + 2L * halves.length;
+            case INT8 -> header + bytes.length;
+        };
+    }
+
+    private double computeNorm() {
+        // Квадраты компонент суммируются в double по порядку
+        double sum = 0.0;
+        int dimensions = dimensions();
+        for (int i = 0; i < dimensions; i++) {
+            double value = get(i);
+            sum += value * value;
+        }
+        return Math.sqrt(sum);
+    }
+}
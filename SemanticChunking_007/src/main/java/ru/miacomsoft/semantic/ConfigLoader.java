@@ -32,6 +32,34 @@ public class ConfigLoader {
         properties.setProperty("rag.embedding.model", "all-minilm:22m");
         properties.setProperty("rag.embedding.host", "localhost");
         properties.setProperty("rag.embedding.server.port", "11434");
+        properties.setProperty("rag.embedding.provider", "ollama");
+        properties.setProperty("rag.embedding.max-concurrent-requests", "16");
+        properties.setProperty("rag.embedding.initial-concurrent-requests", "4");
+        properties.setProperty("rag.embedding.adaptive-concurrency", "true");
+        properties.setProperty("rag.embedding.batch-endpoint", "true");
+        properties.setProperty("rag.embedding.cache.max-entries", "1000");
+        properties.setProperty("rag.embedding.cache.max-bytes", "0");
+        properties.setProperty("rag.embedding.cache.file", "");
+        properties.setProperty("rag.embedding.cache.max-mb", "256");
+        properties.setProperty("rag.embedding.storage", "float32");
+        properties.setProperty("rag.clustering.band", "0");
+        properties.setProperty("rag.chunking.strategy", "");
+        properties.setProperty("rag.chunking.breakpoint-amount", "");
+        properties.setProperty("rag.clustering.memory-mb", "64");
+        properties.setProperty("rag.db.batch-size", "500");
+        properties.setProperty("rag.db.bulk-copy", "false");
+        properties.setProperty("rag.db.dedup.bloom-filter", "true");
+        properties.setProperty("rag.db.dedup.remove-existing-duplicates", "false");
+        properties.setProperty("rag.db.pool.min-size", "1");
+        properties.setProperty("rag.db.pool.max-size", "10");
+        properties.setProperty("rag.db.pool.max-wait-ms", "30000");
+        properties.setProperty("rag.db.pool.idle-timeout-ms", "600000");
+        properties.setProperty("rag.db.pool.validation-timeout-s", "5");
+        properties.setProperty("rag.db.pool.prepare-threshold", "1");
+        properties.setProperty("rag.db.pool.statement-cache-queries", "256");
+        properties.setProperty("rag.ingest.queue-capacity", "16");
+        properties.setProperty("rag.ingest.embedding-in-flight", "4");
+        properties.setProperty("rag.ingest.report-interval-ms", "5000");
 
         // PostgreSQL configuration из отдельных параметров
         properties.setProperty("spring.datasource.driver-class-name", "org.postgresql.Driver");
@@ -79,6 +107,265 @@ public class ConfigLoader {
         }
     }
 
+    /**
+     * Источник эмбеддингов: ollama (HTTP API) или hash (детерминированные векторы без сервера)
+     */
+    public String getEmbeddingProviderName() {
+        return properties.getProperty("rag.embedding.provider", "ollama").split("#")[0].trim().toLowerCase();
+    }
+
+    /**
+     * Максимальное количество одновременных запросов к серверу эмбеддингов
+     * (при адаптивном управлении - верхняя граница лимита)
+     */
+    public int getEmbeddingMaxConcurrentRequests() {
+        return Math.max(1, getIntProperty("rag.embedding.max-concurrent-requests", 16));
+    }
+
+    /**
+     * Начальный лимит одновременных запросов при адаптивном управлении
+     */
+    public int getEmbeddingInitialConcurrentRequests() {
+        return Math.max(1, getIntProperty("rag.embedding.initial-concurrent-requests", 4));
+    }
+
+    /**
+     * Формат хранения эмбеддингов в кэше в памяти и в чанках (float32 | float16 | int8)
+     */
+    public CompactEmbedding.Storage getEmbeddingStorage() {
+        String value = properties.getProperty("rag.embedding.storage", "float32").split("#")[0].trim();
+        try {
+            return CompactEmbedding.Storage.fromName(value);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Ошибка парсинга параметра rag.embedding.storage: " + value + ", используется float32");
+            return CompactEmbedding.Storage.FLOAT32;
+        }
+    }
+
+    /**
+     * Подбирать ли лимит одновременных запросов по задержке и ответам 429/5xx
+     */
+    public boolean isEmbeddingAdaptiveConcurrencyEnabled() {
+        return getBooleanProperty("rag.embedding.adaptive-concurrency", true);
+    }
+
+    /**
+     * Использовать ли пакетный эндпоинт /api/embed (несколько текстов в одном запросе)
+     */
+    public boolean isEmbeddingBatchEndpointEnabled() {
+        return getBooleanProperty("rag.embedding.batch-endpoint", true);
+    }
+
+    /**
+     * Емкость кэша эмбеддингов в памяти (количество предложений)
+     */
+    public int getEmbeddingCacheMaxEntries() {
+        return Math.max(1, getIntProperty("rag.embedding.cache.max-entries", 1000));
+    }
+
+    /**
+     * Емкость кэша эмбеддингов в памяти в байтах (0 - ограничение по количеству записей)
+     */
+    public long getEmbeddingCacheMaxBytes() {
+        String value = properties.getProperty("rag.embedding.cache.max-bytes", "0").split("#")[0].trim();
+        try {
+            return Math.max(0, Long.parseLong(value));
+        } catch (NumberFormatException e) {
+            System.err.println("Ошибка парсинга параметра rag.embedding.cache.max-bytes: " + value + ", ограничение по байтам отключено");
+            return 0;
+        }
+    }
+
+    /**
+     * Файл постоянного кэша эмбеддингов (пустое значение - кэш на диске отключен)
+     */
+    public String getEmbeddingCacheFile() {
+        return properties.getProperty("rag.embedding.cache.file", "").split("#")[0].trim();
+    }
+
+    /**
+     * Предельный размер файла постоянного кэша эмбеддингов в мегабайтах
+     */
+    public int getEmbeddingCacheMaxMb() {
+        return Math.max(1, getIntProperty("rag.embedding.cache.max-mb", 256));
+    }
+
+    /**
+     * Способ группировки предложений (sliding-window | hierarchical | percentile | std-dev);
+     * null, если не задан (способ выбирается конструктором SemanticChunker)
+     */
+    public SemanticChunker.GroupingStrategy getChunkingStrategy() {
+        String value = properties.getProperty("rag.chunking.strategy", "").split("#")[0].trim();
+        if (value.isEmpty()) {
+            return null;
+        }
+        try {
+            return SemanticChunker.GroupingStrategy.fromName(value);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Ошибка парсинга параметра rag.chunking.strategy: " + value + ", способ выбирается конструктором");
+            return null;
+        }
+    }
+
+    /**
+     * Порог точек разрыва: перцентиль для percentile, количество стандартных отклонений
+     * для std-dev (если не задан - значение по умолчанию способа)
+     */
+    public double getChunkingBreakpointAmount(SemanticChunker.GroupingStrategy strategy) {
+        String value = properties.getProperty("rag.chunking.breakpoint-amount", "").split("#")[0].trim();
+        if (value.isEmpty()) {
+            return strategy.defaultBreakpointAmount();
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            System.err.println("Ошибка парсинга параметра rag.chunking.breakpoint-amount: " + value
+                    + ", используется значение по умолчанию " + strategy.defaultBreakpointAmount());
+            return strategy.defaultBreakpointAmount();
+        }
+    }
+
+    /**
+     * Иерархическая кластеризация: с каким количеством следующих предложений
+     * сравнивается каждое (0 - со всеми)
+     */
+    public int getClusteringBand() {
+        return Math.max(0, getIntProperty("rag.clustering.band", 0));
+    }
+
+    /**
+     * Иерархическая кластеризация: предельный объем промежуточных данных в мегабайтах
+     */
+    public int getClusteringMemoryMb() {
+        return Math.max(1, getIntProperty("rag.clustering.memory-mb", 64));
+    }
+
+    /**
+     * Сколько чанков DocumentChunker.addDocuments записывает в базу одной пачкой (executeBatch)
+     */
+    public int getDbBatchSize() {
+        return Math.max(1, getIntProperty("rag.db.batch-size", 500));
+    }
+
+    /**
+     * Загружать книги в BatchBookProcessor через COPY (DocumentBulkLoader) вместо addDocuments
+     */
+    public boolean isDbBulkCopyEnabled() {
+        return getBooleanProperty("rag.db.bulk-copy", false);
+    }
+
+    /**
+     * Фильтр Блума хэшей текстов по client_id: точно новые чанки сохраняются без проверки повторов
+     */
+    public boolean isDbBloomFilterEnabled() {
+        return getBooleanProperty("rag.db.dedup.bloom-filter", true);
+    }
+
+    /**
+     * Удалять повторы текста, уже сохраненные в documents, чтобы создать уникальный индекс по хэшу
+     */
+    public boolean isDbDedupRemoveExistingEnabled() {
+        return getBooleanProperty("rag.db.dedup.remove-existing-duplicates", false);
+    }
+
+    /**
+     * Пул соединений: сколько соединений держать открытыми, даже если они простаивают
+     */
+    public int getDbPoolMinSize() {
+        return Math.max(0, getIntProperty("rag.db.pool.min-size", 1));
+    }
+
+    /**
+     * Пул соединений: наибольшее количество соединений
+     */
+    public int getDbPoolMaxSize() {
+        return Math.max(1, getIntProperty("rag.db.pool.max-size", 10));
+    }
+
+    /**
+     * Пул соединений: сколько ждать свободного соединения, если заняты все (мс)
+     */
+    public int getDbPoolMaxWaitMs() {
+        return Math.max(0, getIntProperty("rag.db.pool.max-wait-ms", 30000));
+    }
+
+    /**
+     * Пул соединений: через сколько простоя соединение сверх min-size закрывается (мс)
+     */
+    public int getDbPoolIdleTimeoutMs() {
+        return Math.max(0, getIntProperty("rag.db.pool.idle-timeout-ms", 600000));
+    }
+
+    /**
+     * Пул соединений: предельное время проверки соединения перед выдачей (секунды)
+     */
+    public int getDbPoolValidationTimeoutSeconds() {
+        return Math.max(1, getIntProperty("rag.db.pool.validation-timeout-s", 5));
+    }
+
+    /**
+     * pgJDBC prepareThreshold: с какого выполнения запрос подготавливается на сервере
+     */
+    public int getDbPoolPrepareThreshold() {
+        return getIntProperty("rag.db.pool.prepare-threshold", 1);
+    }
+
+    /**
+     * pgJDBC preparedStatementCacheQueries: сколько подготовленных запросов хранит соединение
+     */
+    public int getDbPoolStatementCacheQueries() {
+        return Math.max(0, getIntProperty("rag.db.pool.statement-cache-queries", 256));
+    }
+
+    /**
+     * Емкость очередей конвейера загрузки (IngestPipeline) между чтением, разбиением и эмбеддингом
+     */
+    public int getIngestQueueCapacity() {
+        return Math.max(1, getIntProperty("rag.ingest.queue-capacity", 16));
+    }
+
+    /**
+     * Сколько пачек предложений конвейер загрузки одновременно отправляет на эмбеддинг
+     */
+    public int getIngestEmbeddingInFlight() {
+        return Math.max(1, getIntProperty("rag.ingest.embedding-in-flight", 4));
+    }
+
+    /**
+     * Период печати статистики конвейера загрузки (0 - только итог)
+     */
+    public long getIngestReportIntervalMs() {
+        return Math.max(0, getIntProperty("rag.ingest.report-interval-ms", 5000));
+    }
+
+    /**
+     * Читает логический параметр, игнорируя комментарии в строке
+     */
+    private boolean getBooleanProperty(String name, boolean defaultValue) {
+        String value = properties.getProperty(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        return Boolean.parseBoolean(value.split("#")[0].trim());
+    }
+
+    /**
+     * Читает целочисленный параметр, игнорируя комментарии в строке
+     */
+    private int getIntProperty(String name, int defaultValue) {
+        String value = properties.getProperty(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        value = value.split("#")[0].trim();
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            System.err.println("Ошибка парсинга параметра " + name + ": " + value + ", используется значение по умолчанию " + defaultValue);
+            return defaultValue;
+        }
+    }
+
     // Добавляем методы для получения отдельных параметров базы данных
     public String getDbHost() {
         return properties.getProperty("spring.datasource.host", "localhost");
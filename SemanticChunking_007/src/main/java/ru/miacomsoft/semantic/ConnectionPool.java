@@ -0,0 +1,456 @@
+package ru.miacomsoft.semantic;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Пул соединений с PostgreSQL.
+ *
+ * getConnection выдает обертку над физическим соединением: close возвращает
+ * соединение в пул (с откатом незавершенной транзакции и autocommit = true).
+ * Свободные соединения выдаются в порядке LIFO, поэтому редко используемые
+ * простаивают и закрываются фоновой задачей после idleTimeoutMs (не меньше minSize
+ * соединений остается). Соединение, простоявшее дольше VALIDATION_INTERVAL_MS,
+ * перед выдачей проверяется isValid. Физические соединения живут долго, поэтому
+ * кэш подготовленных запросов pgJDBC (prepareThreshold, preparedStatementCacheQueries)
+ * работает между вызовами. Если все maxSize соединений заняты, поток ждет до maxWaitMs.
+ * setConnectionInitializer задает настройку физического соединения (например,
+ * регистрацию типов), которая выполняется один раз перед его первой выдачей
+ */
+public class ConnectionPool implements AutoCloseable {
+
+    // Соединение, простоявшее дольше, проверяется перед выдачей
+    private static final long VALIDATION_INTERVAL_MS = 5_000;
+    // Наименьший период фоновой задачи (закрытие простаивающих, пополнение до minSize)
+    private static final long MIN_MAINTENANCE_PERIOD_MS = 1_000;
+
+    private final String url;
+    private final Properties connectionProperties;
+    private final int minSize;
+    private final int maxSize;
+    private final long maxWaitNanos;
+    private final long idleTimeoutNanos;
+    private final int validationTimeoutSeconds;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition connectionAvailable = lock.newCondition();
+    // Свободные соединения: последним возвращенное - первым
+    private final ArrayDeque<IdleConnection> idle = new ArrayDeque<>();
+    private final ScheduledExecutorService maintenance;
+    // Физические соединения, для которых уже выполнен connectionInitializer
+    private final Set<Connection> initialized = Collections.newSetFromMap(new WeakHashMap<>());
+    private ConnectionInitializer connectionInitializer;
+
+    private int total;
+    private int active;
+    private int waiting;
+    private boolean closed;
+
+    private long borrows;
+    private long totalWaitNanos;
+    private long maxWaitedNanos;
+    private long timeouts;
+    private long created;
+    private long evicted;
+    private long validationFailures;
+
+    private record IdleConnection(Connection connection, long releasedNanos) {
+    }
+
+    /**
+     * Настройка физического соединения перед первой выдачей
+     */
+    @FunctionalInterface
+    public interface ConnectionInitializer {
+        void initialize(Connection connection) throws SQLException;
+    }
+
+    public ConnectionPool(String url, String username, String password, int minSize, int maxSize,
+                          long maxWaitMs, long idleTimeoutMs, int validationTimeoutSeconds,
+                          int prepareThreshold, int statementCacheQueries) {
+        this.url = url;
+        this.connectionProperties = new Properties();
+        connectionProperties.setProperty("user", username);
+        connectionProperties.setProperty("password", password);
+        connectionProperties.setProperty("prepareThreshold", String.valueOf(prepareThreshold));
+        connectionProperties.setProperty("preparedStatementCacheQueries", String.valueOf(statementCacheQueries));
+        this.maxSize = Math.max(1, maxSize);
+        this.minSize = Math.min(this.maxSize, Math.max(0, minSize));
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxWaitMs));
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, idleTimeoutMs));
+        this.validationTimeoutSeconds = Math.max(1, validationTimeoutSeconds);
+
+        long period = Math.max(MIN_MAINTENANCE_PERIOD_MS, idleTimeoutMs / 4);
+        this.maintenance = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "connection-pool-maintenance");
+            thread.setDaemon(true);
+            return thread;
+        });
+        maintenance.scheduleWithFixedDelay(this::maintain, 0, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Пул для базы из ConfigLoader (параметры rag.db.pool.*)
+     */
+    public static ConnectionPool fromConfig(ConfigLoader configLoader) {
+        return new ConnectionPool(configLoader.getDbUrl(), configLoader.getDbUsername(), configLoader.getDbPassword(),
+                configLoader.getDbPoolMinSize(), configLoader.getDbPoolMaxSize(),
+                configLoader.getDbPoolMaxWaitMs(), configLoader.getDbPoolIdleTimeoutMs(),
+                configLoader.getDbPoolValidationTimeoutSeconds(),
+                configLoader.getDbPoolPrepareThreshold(), configLoader.getDbPoolStatementCacheQueries());
+    }
+
+    /**
+     * Задает настройку физических соединений: выполняется для каждого соединения
+     * (в том числе уже открытого) один раз перед его следующей выдачей
+     */
+    public void setConnectionInitializer(ConnectionInitializer connectionInitializer) {
+        lock.lock();
+        try {
+            this.connectionInitializer = connectionInitializer;
+            initialized.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Выдает свободное соединение или открывает новое; close у выданного соединения
+     * возвращает его в пул
+     */
+    public Connection getConnection() throws SQLException {
+        long start = System.nanoTime();
+        while (true) {
+            IdleConnection candidate;
+            lock.lock();
+            try {
+                waiting++;
+                try {
+                    while (!closed && idle.isEmpty() && total >= maxSize) {
+                        long remaining = start + maxWaitNanos - System.nanoTime();
+                        if (remaining <= 0) {
+                            timeouts++;
+                            throw new SQLTimeoutException("Нет свободного соединения с базой за "
+                                    + TimeUnit.NANOSECONDS.toMillis(maxWaitNanos) + " мс (занято " + active + ")");
+                        }
+                        connectionAvailable.awaitNanos(remaining);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLException("Ожидание соединения с базой прервано", e);
+                } finally {
+                    waiting--;
+                }
+                if (closed) {
+                    throw new SQLException("Пул соединений закрыт");
+                }
+                candidate = idle.pollFirst();
+                if (candidate == null) {
+                    total++;
+                }
+                active++;
+            } finally {
+                lock.unlock();
+            }
+
+            // Открытие и проверка соединения - без блокировки пула
+            Connection connection;
+            if (candidate == null) {
+                try {
+                    connection = DriverManager.getConnection(url, connectionProperties);
+                } catch (SQLException e) {
+                    discard(null, false);
+                    throw e;
+                }
+                lock.lock();
+                try {
+                    created++;
+                } finally {
+                    lock.unlock();
+                }
+            } else {
+                connection = candidate.connection();
+                long idleNanos = System.nanoTime() - candidate.releasedNanos();
+                if (idleNanos > TimeUnit.MILLISECONDS.toNanos(VALIDATION_INTERVAL_MS) && !isValid(connection)) {
+                    discard(connection, true);
+                    continue;
+                }
+            }
+            try {
+                initialize(connection);
+            } catch (SQLException e) {
+                discard(connection, false);
+                throw e;
+            }
+
+            long waited = System.nanoTime() - start;
+            lock.lock();
+            try {
+                borrows++;
+                totalWaitNanos += waited;
+                maxWaitedNanos = Math.max(maxWaitedNanos, waited);
+            } finally {
+                lock.unlock();
+            }
+            return wrap(connection);
+        }
+    }
+
+    /**
+     * Текущее состояние пула: соединения (всего, выданные, свободные), ожидающие потоки,
+     * среднее и максимальное время ожидания соединения
+     */
+    public Map<String, Object> getStats() {
+        lock.lock();
+        try {
+            Map<String, Object> stats = new HashMap<>();
+            stats.put("total", total);
+            stats.put("active", active);
+            stats.put("idle", idle.size());
+            stats.put("waiting", waiting);
+            stats.put("minSize", minSize);
+            stats.put("maxSize", maxSize);
+            stats.put("borrows", borrows);
+            stats.put("averageWaitMs", borrows == 0 ? 0.0 : totalWaitNanos / 1_000_000.0 / borrows);
+            stats.put("maxWaitMs", maxWaitedNanos / 1_000_000.0);
+            stats.put("timeouts", timeouts);
+            stats.put("created", created);
+            stats.put("evicted", evicted);
+            stats.put("validationFailures", validationFailures);
+            return stats;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Закрывает свободные соединения; выданные закрываются при возврате
+     */
+    @Override
+    public void close() {
+        List<Connection> toClose = new ArrayList<>();
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            for (IdleConnection connection : idle) {
+                toClose.add(connection.connection());
+            }
+            total -= idle.size();
+            idle.clear();
+            connectionAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        maintenance.shutdownNow();
+        toClose.forEach(ConnectionPool::closeQuietly);
+    }
+
+    /**
+     * Возврат соединения: незавершенная транзакция откатывается; соединение,
+     * которое не удалось вернуть в исходное состояние, закрывается
+     */
+    private void release(Connection connection) {
+        boolean reusable;
+        try {
+            reusable = !connection.isClosed();
+            if (reusable && !connection.getAutoCommit()) {
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+            if (reusable) {
+                connection.clearWarnings();
+            }
+        } catch (SQLException e) {
+            reusable = false;
+        }
+
+        lock.lock();
+        try {
+            active--;
+            if (reusable && !closed) {
+                idle.addFirst(new IdleConnection(connection, System.nanoTime()));
+                connectionAvailable.signal();
+                return;
+            }
+            total--;
+            connectionAvailable.signal();
+        } finally {
+            lock.unlock();
+        }
+        closeQuietly(connection);
+    }
+
+    /**
+     * Выданное соединение не вернется в пул (не открылось или не прошло проверку)
+     */
+    private void discard(Connection connection, boolean validationFailed) {
+        lock.lock();
+        try {
+            active--;
+            total--;
+            if (validationFailed) {
+                validationFailures++;
+            }
+            connectionAvailable.signal();
+        } finally {
+            lock.unlock();
+        }
+        if (connection != null) {
+            closeQuietly(connection);
+        }
+    }
+
+    /**
+     * Фоновая задача: закрывает соединения, простаивающие дольше idleTimeoutMs
+     * (сверх minSize), и открывает соединения до minSize
+     */
+    private void maintain() {
+        List<Connection> toClose = new ArrayList<>();
+        int missing;
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            long now = System.nanoTime();
+            // Самые давно возвращенные - в конце очереди
+            Iterator<IdleConnection> oldest = idle.descendingIterator();
+            while (oldest.hasNext() && total > minSize) {
+                IdleConnection connection = oldest.next();
+                if (now - connection.releasedNanos() < idleTimeoutNanos) {
+                    break;
+                }
+                oldest.remove();
+                total--;
+                evicted++;
+                toClose.add(connection.connection());
+            }
+            missing = minSize - total;
+            total += Math.max(0, missing);
+        } finally {
+            lock.unlock();
+        }
+        toClose.forEach(ConnectionPool::closeQuietly);
+
+        for (int i = 0; i < missing; i++) {
+            Connection connection = null;
+            try {
+                connection = DriverManager.getConnection(url, connectionProperties);
+            } catch (SQLException e) {
+                System.err.println("Пул соединений: не удалось открыть соединение: " + e.getMessage());
+            }
+            lock.lock();
+            try {
+                if (connection == null || closed) {
+                    total--;
+                } else {
+                    created++;
+                    idle.addLast(new IdleConnection(connection, System.nanoTime()));
+                    connectionAvailable.signal();
+                    connection = null;
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (connection != null) {
+                closeQuietly(connection);
+            }
+        }
+    }
+
+    private void initialize(Connection connection) throws SQLException {
+        ConnectionInitializer initializer;
+        lock.lock();
+        try {
+            initializer = connectionInitializer;
+            if (initializer == null || !initialized.add(connection)) {
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        initializer.initialize(connection);
+    }
+
+    private boolean isValid(Connection connection) {
+        try {
+            return connection.isValid(validationTimeoutSeconds);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Обертка над физическим соединением: close возвращает его в пул (один раз),
+     * после возврата вызовы методов завершаются ошибкой
+     */
+    private Connection wrap(Connection connection) {
+        boolean[] returned = {false};
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                (proxy, method, args) -> {
+                    String name = method.getName();
+                    if (name.equals("close")) {
+                        if (!returned[0]) {
+                            returned[0] = true;
+                            release(connection);
+                        }
+                        return null;
+                    }
+                    if (name.equals("isClosed")) {
+                        return returned[0] || connection.isClosed();
+                    }
+                    if (name.equals("equals")) {
+                        return proxy == args[0];
+                    }
+                    if (name.equals("hashCode")) {
+                        return System.identityHashCode(proxy);
+                    }
+                    if (name.equals("toString")) {
+                        return "Pooled " + connection;
+                    }
+                    if (returned[0]) {
+                        throw new SQLException("Соединение уже возвращено в пул");
+                    }
+                    return invoke(connection, method, args);
+                });
+    }
+
+    private static Object invoke(Connection connection, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(connection, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            // Соединение уже не используется
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package ru.miacomsoft.semantic;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.*;
+import java.util.Properties;
+import java.util.function.Consumer;
+
+/**
+ * Массовая загрузка чанков в documents и embeddings через протокол COPY.
+ *
+ * Чанки передаются на сервер потоком в двоичном формате COPY во временную
+ * таблицу documents_staging (эмбеддинг - vector в двоичном формате pgvector, как
+ * в PgVector), затем одним запросом переносятся в documents и embeddings. Дубликаты пропускаются так же, как в
+ * DocumentChunker.addDocuments: текст, уже сохраненный для client_id, не добавляется
+ * (ON CONFLICT по хэшу текста), а из повторов внутри загрузки остается первый.
+ * Вся загрузка - одна транзакция.
+ *
+ * Использование:
+ * try (DocumentBulkLoader.Session session = loader.open(clientId, sourceFileName)) {
+ *     semanticChunker.semanticChunking(path, 800, session);
+ *     session.finish();
+ * }
+ */
+public class DocumentBulkLoader {
+
+    // Заголовок двоичного COPY: сигнатура, флаги и длина расширения заголовка
+    private static final byte[] COPY_HEADER = {
+            'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xFF, '\r', '\n', 0,
+            0, 0, 0, 0,
+            0, 0, 0, 0
+    };
+    // Строки COPY отправляются на сервер частями примерно такого размера (байт)
+    private static final int FLUSH_BYTES = 1 << 20;
+
+    private static final String CREATE_STAGING_SQL = """
+            CREATE TEMP TABLE documents_staging (
+                ord BIGINT,
+                content TEXT,
+                metadata TEXT,
+                client_id VARCHAR(255),
+                content_hash BYTEA,
+                embedding vector,
+                embedding_norm DOUBLE PRECISION
+            ) ON COMMIT DROP
+            """;
+
+    private static final String COPY_SQL =
+            "COPY documents_staging (ord, content, metadata, client_id, content_hash, embedding, embedding_norm) FROM STDIN (FORMAT binary)";
+
+    private static final String MERGE_SQL = """
+            WITH fresh AS (
+                SELECT DISTINCT ON (s.content_hash) s.ord, s.content, s.metadata, s.client_id, s.content_hash,
+                       s.embedding, s.embedding_norm
+                FROM documents_staging s
+                ORDER BY s.content_hash, s.ord
+            ), inserted AS (
+                INSERT INTO documents (content, metadata, client_id, content_hash)
+                SELECT content, metadata::jsonb, client_id, content_hash FROM fresh ORDER BY ord
+                ON CONFLICT ((COALESCE(client_id, '')), content_hash) DO NOTHING
+                RETURNING id, content_hash
+            ), inserted_embeddings AS (
+                INSERT INTO embeddings (document_id, embedding, embedding_norm)
+                SELECT i.id, f.embedding, f.embedding_norm
+                FROM inserted i JOIN fresh f ON f.content_hash = i.content_hash
+                WHERE f.embedding IS NOT NULL
+                RETURNING 1
+            )
+            SELECT (SELECT COUNT(*) FROM inserted), (SELECT COUNT(*) FROM inserted_embeddings)
+            """;
+
+    private final String dbUrl;
+    private final String username;
+    private final String password;
+
+    public DocumentBulkLoader(ConfigLoader configLoader) {
+        this.dbUrl = configLoader.getDbUrl();
+        this.username = configLoader.getDbUsername();
+        this.password = configLoader.getDbPassword();
+    }
+
+    /**
+     * Начинает загрузку чанков одного источника (открывает соединение и COPY)
+     */
+    public Session open(String clientId, String sourceFileName) throws SQLException {
+        Properties dbParams = new Properties();
+        dbParams.setProperty("user", username);
+        dbParams.setProperty("password", password);
+        return new Session(DriverManager.getConnection(dbUrl, dbParams), clientId, sourceFileName);
+    }
+
+    /**
+     * Одна загрузка: чанки принимаются через add/accept (из одного потока),
+     * finish переносит их в основные таблицы. Закрытие без finish отменяет загрузку
+     */
+    public static class Session implements Consumer<SemanticChunker.Chunk>, AutoCloseable {
+        private final Connection conn;
+        private final CopyIn copyIn;
+        private final String clientId;
+        private final String sourceFileName;
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(FLUSH_BYTES + 64 * 1024);
+        private final long start = System.nanoTime();
+        private long rows;
+        private long bytes;
+        private boolean finished;
+
+        private Session(Connection conn, String clientId, String sourceFileName) throws SQLException {
+            this.conn = conn;
+            this.clientId = clientId;
+            this.sourceFileName = sourceFileName;
+            try {
+                conn.setAutoCommit(false);
+                try (Statement stmt = conn.createStatement()) {
+                    stmt.execute(CREATE_STAGING_SQL);
+                }
+                this.copyIn = conn.unwrap(PGConnection.class).getCopyAPI().copyIn(COPY_SQL);
+            } catch (SQLException e) {
+                conn.close();
+                throw e;
+            }
+            buffer.writeBytes(COPY_HEADER);
+        }
+
+        /**
+         * Для передачи в SemanticChunker.semanticChunking как consumer
+         */
+        @Override
+        public void accept(SemanticChunker.Chunk chunk) {
+            try {
+                add(chunk);
+            } catch (SQLException e) {
+                throw new IllegalStateException("Ошибка COPY: " + e.getMessage(), e);
+            }
+        }
+
+        /**
+         * Добавляет чанк в поток COPY
+         */
+        public void add(SemanticChunker.Chunk chunk) throws SQLException {
+            float[] embedding = chunk.getEmbedding();
+            String text = chunk.getText();
+            byte[] contentHash = DocumentChunker.contentHash(text);
+
+            writeShort(7);
+            writeInt(8);
+            writeLong(rows);
+            writeText(text);
+            writeText(DocumentChunker.chunkMetadata(chunk, sourceFileName).toString());
+            writeText(clientId);
+            writeInt(contentHash.length);
+            buffer.writeBytes(contentHash);
+            if (embedding.length == 0) {
+                writeInt(-1);
+                writeInt(-1);
+            } else {
+                PgVector vector = new PgVector(embedding);
+                byte[] data = new byte[vector.lengthInBytes()];
+                vector.toBytes(data, 0);
+                writeInt(data.length);
+                buffer.writeBytes(data);
+                writeInt(8);
+                writeLong(Double.doubleToLongBits(DocumentChunker.embeddingNorm(embedding)));
+            }
+            rows++;
+
+            if (buffer.size() >= FLUSH_BYTES) {
+                flush();
+            }
+        }
+
+        /**
+         * Завершает COPY, переносит строки в documents и embeddings и фиксирует транзакцию.
+         * Возвращает количество добавленных документов
+         */
+        public int finish() throws SQLException {
+            writeShort(-1);
+            flush();
+            copyIn.endCopy();
+            long copyNanos = System.nanoTime() - start;
+
+            int documents;
+            int embeddings;
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery(MERGE_SQL)) {
+                rs.next();
+                documents = rs.getInt(1);
+                embeddings = rs.getInt(2);
+            }
+            conn.commit();
+            finished = true;
+
+            long totalNanos = System.nanoTime() - start;
+            double copySeconds = Math.max(1e-9, copyNanos / 1e9);
+            double totalSeconds = Math.max(1e-9, totalNanos / 1e9);
+            System.out.printf("COPY: %d строк, %.1f МБ за %.1f мс (%.0f строк/с, %.1f МБ/с)%n",
+                    rows, bytes / (1024.0 * 1024.0), copySeconds * 1000, rows / copySeconds,
+                    bytes / (1024.0 * 1024.0) / copySeconds);
+            System.out.printf("Добавлено %d документов и %d эмбеддингов (дубликатов пропущено: %d) за %.1f мс, %.0f строк/с%n",
+                    documents, embeddings, rows - documents, totalSeconds * 1000, (documents + embeddings) / totalSeconds);
+            return documents;
+        }
+
+        public long getRowCount() {
+            return rows;
+        }
+
+        /**
+         * Отменяет незавершенную загрузку и закрывает соединение
+         */
+        @Override
+        public void close() throws SQLException {
+            try {
+                if (!finished) {
+                    if (copyIn.isActive()) {
+                        copyIn.cancelCopy();
+                    }
+                    conn.rollback();
+                }
+            } finally {
+                conn.close();
+            }
+        }
+
+        private void flush() throws SQLException {
+            if (buffer.size() == 0) {
+                return;
+            }
+            byte[] data = buffer.toByteArray();
+            copyIn.writeToCopy(data, 0, data.length);
+            bytes += data.length;
+            buffer.reset();
+        }
+
+        private void writeText(String value) {
+            if (value == null) {
+                writeInt(-1);
+                return;
+            }
+            byte[] data = value.getBytes(StandardCharsets.UTF_8);
+            writeInt(data.length);
+            buffer.writeBytes(data);
+        }
+
+        private void writeShort(int value) {
+            buffer.write(value >>> 8);
+            buffer.write(value);
+        }
+
+        private void writeInt(int value) {
+            buffer.write(value >>> 24);
+            buffer.write(value >>> 16);
+            buffer.write(value >>> 8);
+            buffer.write(value);
+        }
+
+        private void writeLong(long value) {
+            writeInt((int) (value >>> 32));
+            writeInt((int) value);
+        }
+    }
+}
@@ -3,12 +3,22 @@ package ru.miacomsoft.semantic;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
-public class DocumentChunker {
+public class DocumentChunker implements AutoCloseable {
 
     private final ConfigLoader configLoader;
     private final Properties properties;
@@ -16,6 +26,38 @@ public class DocumentChunker {
     private final String username;
     private final String password;
     private final SemanticChunker semanticChunker;
+    // Соединения с базой (rag.db.pool.*); ensureDatabaseExists подключается к базе postgres напрямую
+    private final ConnectionPool connectionPool;
+    // Чанков в одной пачке записи (rag.db.batch-size)
+    private final int batchSize;
+    // Фильтры Блума хэшей текстов по client_id (rag.db.dedup.bloom-filter); null - отключены
+    private final Map<String, BloomFilter> bloomFilters;
+
+    // Фильтр Блума: доля ложных срабатываний и наименьшая емкость
+    private static final double BLOOM_FALSE_POSITIVE_RATE = 0.01;
+    private static final long BLOOM_MIN_CAPACITY = 100_000;
+
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    // Документы пачки одним запросом: повтор (client_id, content_hash) пропускается
+    private static final String INSERT_BATCH_SQL = """
+            INSERT INTO documents (content, metadata, client_id, content_hash)
+            SELECT t.content, t.metadata::jsonb, ?, decode(t.content_hash, 'hex')
+            FROM unnest(?::text[], ?::text[], ?::text[]) WITH ORDINALITY AS t(content, metadata, content_hash, ord)
+            ORDER BY t.ord
+            ON CONFLICT ((COALESCE(client_id, '')), content_hash) DO NOTHING
+            RETURNING id, encode(content_hash, 'hex')
+            """;
+
+    // Эмбеддинги добавленных документов пачки (vector передается в двоичном формате, см. PgVector)
+    private static final String INSERT_EMBEDDING_SQL =
+            "INSERT INTO embeddings (document_id, embedding, embedding_norm) VALUES (?, ?, ?)";
 
     // Добавляем отдельные параметры для удобства
     private final String dbHost;
@@ -42,7 +84,15 @@ public class DocumentChunker {
     }
 
     public DocumentChunker(ConfigLoader configLoader) {
-        this(configLoader, null);
+        this(configLoader, (SemanticChunker) null);
+    }
+
+    /**
+     * Конструктор с заданным источником эмбеддингов (например, HashEmbeddingProvider без сервера модели)
+     */
+    public DocumentChunker(ConfigLoader configLoader, EmbeddingProvider embeddingProvider) {
+        this(configLoader, new SemanticChunker(
+                configLoader == null ? new ConfigLoader() : configLoader, embeddingProvider));
     }
 
     public DocumentChunker(ConfigLoader configLoader, SemanticChunker semanticChunker) {
@@ -61,15 +111,19 @@ public class DocumentChunker {
         this.dbHost = this.configLoader.getDbHost();
         this.dbPort = this.configLoader.getDbPort();
         this.dbName = this.configLoader.getDbName();
+        this.batchSize = this.configLoader.getDbBatchSize();
+        this.bloomFilters = this.configLoader.isDbBloomFilterEnabled() ? new ConcurrentHashMap<>() : null;
 
         // Инициализируем SemanticChunker если не передан
         if (semanticChunker == null) {
-            this.semanticChunker = new SemanticChunker(configLoader);
+            this.semanticChunker = new SemanticChunker(this.configLoader);
         } else {
             this.semanticChunker = semanticChunker;
         }
 
         ensureDatabaseExists();
+        // Пул создается, когда база уже существует
+        this.connectionPool = ConnectionPool.fromConfig(this.configLoader);
         initializeDatabase();
     }
 
@@ -86,9 +140,13 @@ public class DocumentChunker {
         this.dbHost = loader.getDbHost();
         this.dbPort = loader.getDbPort();
         this.dbName = loader.getDbName();
+        this.batchSize = loader.getDbBatchSize();
+        this.bloomFilters = loader.isDbBloomFilterEnabled() ? new ConcurrentHashMap<>() : null;
         this.semanticChunker = new SemanticChunker(loader);
 
         ensureDatabaseExists();
+        // Пул создается, когда база уже существует
+        this.connectionPool = ConnectionPool.fromConfig(this.configLoader);
         initializeDatabase();
     }
 
@@ -120,11 +178,7 @@ public class DocumentChunker {
      * Инициализация базы данных PostgreSQL с расширением pg_vector
      */
     private void initializeDatabase() {
-        Properties dbParams = new Properties();
-        dbParams.setProperty("user", username);
-        dbParams.setProperty("password", password);
-
-        try (Connection conn = DriverManager.getConnection(dbUrl, dbParams);
+        try (Connection conn = connectionPool.getConnection();
              Statement stmt = conn.createStatement()) {
 
             // Проверяем тип базы данных
@@ -143,6 +197,10 @@ public class DocumentChunker {
         } catch (SQLException e) {
             System.err.println("Error initializing database: " + e.getMessage());
             System.err.println("URL: " + dbUrl);
+        } catch (IllegalStateException e) {
+            // Без уникального индекса чанкер неработоспособен: ошибка выходит из конструктора
+            connectionPool.close();
+            throw e;
         }
     }
 
@@ -156,6 +214,9 @@ public class DocumentChunker {
                 System.err.println("Ошибка при проверке расширения vector: " + e.getMessage());
             }
 
+            // Тип vector зарегистрирован в каждом соединении пула: эмбеддинги передаются в двоичном формате
+            connectionPool.setConnectionInitializer(PgVector::register);
+
             // Создаем таблицы для PostgreSQL
             stmt.execute("""
                         CREATE TABLE IF NOT EXISTS documents (
@@ -163,6 +224,7 @@ public class DocumentChunker {
                             content TEXT NOT NULL,
                             metadata JSONB,
                             client_id VARCHAR(255),
+                            content_hash BYTEA,
                             created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
                         )
                     """);
@@ -185,12 +247,66 @@ public class DocumentChunker {
                         ON embeddings USING ivfflat (embedding vector_cosine_ops)
                         WITH (lists = 100)
                     """);
+            initializeContentHash(stmt);
 
             System.out.println("PostgreSQL database initialized successfully with pg_vector support");
             System.out.println("Database URL: " + dbUrl);
         }
     }
 
+    /**
+     * Хэш текста документа (SHA-256) и уникальный индекс (client_id, content_hash) для
+     * INSERT ... ON CONFLICT. Документам из прежних версий хэш вычисляется на сервере.
+     * Если в базе уже есть точные повторы текста внутри одного client_id, индекс не создать,
+     * а без него не работает ни одна вставка: конструктор DocumentChunker завершается
+     * IllegalStateException с количеством повторов. Удаляются повторы (остается
+     * документ с меньшим id) только при rag.db.dedup.remove-existing-duplicates=true
+     */
+    private void initializeContentHash(Statement stmt) throws SQLException {
+        stmt.execute("ALTER TABLE documents ADD COLUMN IF NOT EXISTS content_hash BYTEA");
+        int hashed = stmt.executeUpdate(
+                "UPDATE documents SET content_hash = sha256(convert_to(content, 'UTF8')) WHERE content_hash IS NULL");
+        if (hashed > 0) {
+            System.out.println("Вычислен хэш текста для " + hashed + " документов");
+        }
+
+        try (ResultSet rs = stmt.executeQuery(
+                "SELECT 1 FROM pg_indexes WHERE indexname = 'idx_documents_client_content_hash'")) {
+            if (rs.next()) {
+                return;
+            }
+        }
+
+        long duplicates;
+        try (ResultSet rs = stmt.executeQuery("""
+                    SELECT COALESCE(SUM(copies - 1), 0) FROM (
+                        SELECT COUNT(*) AS copies FROM documents
+                        GROUP BY COALESCE(client_id, ''), content_hash
+                        HAVING COUNT(*) > 1
+                    ) groups
+                """)) {
+            rs.next();
+            duplicates = rs.getLong(1);
+        }
+        if (duplicates > 0) {
+            if (!configLoader.isDbDedupRemoveExistingEnabled()) {
+                throw new IllegalStateException("В таблице documents " + duplicates + " повторов текста в пределах client_id, "
+                        + "уникальный индекс idx_documents_client_content_hash не создан. Удалите повторы "
+                        + "или включите rag.db.dedup.remove-existing-duplicates=true (останется документ с меньшим id)");
+            }
+            int removed = stmt.executeUpdate("""
+                        DELETE FROM documents d USING documents o
+                        WHERE COALESCE(d.client_id, '') = COALESCE(o.client_id, '')
+                          AND d.content_hash = o.content_hash AND d.id > o.id
+                    """);
+            System.out.println("Удалено повторов документов: " + removed);
+        }
+        stmt.execute("""
+                    CREATE UNIQUE INDEX IF NOT EXISTS idx_documents_client_content_hash
+                    ON documents ((COALESCE(client_id, '')), content_hash)
+                """);
+    }
+
     private void initializeSQLite(Connection conn) throws SQLException {
         try (Statement stmt = conn.createStatement()) {
             // Создаем таблицы для SQLite
@@ -265,32 +381,29 @@ public class DocumentChunker {
      * Добавление документа в базу данных с эмбеддингом
      */
     public int addDocument(String content, JSONObject metadata, String clientId, float[] embedding) {
-        Properties dbParams = new Properties();
-        dbParams.setProperty("user", username);
-        dbParams.setProperty("password", password);
-
-        try (Connection conn = DriverManager.getConnection(dbUrl, dbParams)) {
+        try (Connection conn = connectionPool.getConnection()) {
             conn.setAutoCommit(false);
 
-            // Проверяем наличие дубликата
-            if (isDuplicate(conn, content)) {
-                System.out.println("Документ уже существует, пропускаем добавление");
-                return -1;
-            }
-
             // Добавляем clientId в метаданные
             if (metadata == null) {
                 metadata = new JSONObject();
             }
             metadata.put("clientId", clientId);
 
-            // Сохраняем документ в базу
-            Long documentId = saveDocument(conn, content, metadata.toString(), clientId);
+            // Сохраняем документ в базу (повтор текста для clientId не добавляется)
+            byte[] contentHash = contentHash(content);
+            Long documentId = saveDocument(conn, content, metadata.toString(), clientId, contentHash);
+            if (documentId == null) {
+                conn.rollback();
+                System.out.println("Документ уже существует, пропускаем добавление");
+                return -1;
+            }
 
-            if (documentId != null && embedding.length > 0) {
+            if (embedding.length > 0) {
                 // Сохраняем эмбеддинг
                 saveEmbedding(conn, documentId, embedding);
                 conn.commit();
+                rememberContentHash(clientId, contentHash);
                 System.out.println("Документ успешно добавлен с ID: " + documentId);
                 return documentId.intValue();
             } else {
@@ -320,33 +433,21 @@ public class DocumentChunker {
     }
 
     /**
-     * Проверка наличия дубликата документа
+     * Сохранение документа в базу данных; null, если документ с таким текстом у clientId уже есть
      */
-    private boolean isDuplicate(Connection conn, String content) throws SQLException {
-        String sql = "SELECT COUNT(*) FROM documents WHERE content = ?";
-
-        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setString(1, content);
-
-            try (ResultSet rs = pstmt.executeQuery()) {
-                if (rs.next()) {
-                    return rs.getInt(1) > 0;
-                }
-            }
-        }
-        return false;
-    }
-
-    /**
-     * Сохранение документа в базу данных
-     */
-    private Long saveDocument(Connection conn, String content, String metadata, String clientId) throws SQLException {
-        String sql = "INSERT INTO documents (content, metadata, client_id) VALUES (?, ?::jsonb, ?) RETURNING id";
+    private Long saveDocument(Connection conn, String content, String metadata, String clientId,
+                              byte[] contentHash) throws SQLException {
+        String sql = """
+                    INSERT INTO documents (content, metadata, client_id, content_hash) VALUES (?, ?::jsonb, ?, ?)
+                    ON CONFLICT ((COALESCE(client_id, '')), content_hash) DO NOTHING
+                    RETURNING id
+                """;
 
         try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
             pstmt.setString(1, content);
             pstmt.setString(2, metadata);
             pstmt.setString(3, clientId);
+            pstmt.setBytes(4, contentHash);
 
             try (ResultSet rs = pstmt.executeQuery()) {
                 if (rs.next()) {
@@ -361,72 +462,256 @@ public class DocumentChunker {
      * Сохранение эмбеддинга в базу данных
      */
     private void saveEmbedding(Connection conn, Long documentId, float[] embedding) throws SQLException {
-        String sql = "INSERT INTO embeddings (document_id, embedding, embedding_norm) VALUES (?, ?::vector, ?)";
+        try (PreparedStatement pstmt = conn.prepareStatement(INSERT_EMBEDDING_SQL)) {
+            pstmt.setLong(1, documentId);
+            pstmt.setObject(2, new PgVector(embedding));
+            pstmt.setDouble(3, embeddingNorm(embedding));
+            pstmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Метаданные документа-чанка: источник, тип и границы в исходном тексте
+     */
+    static JSONObject chunkMetadata(SemanticChunker.Chunk chunk, String sourceFileName) {
+        JSONObject metadata = new JSONObject();
+        metadata.put("source", sourceFileName);
+        metadata.put("chunkType", "semantic");
+        if (chunk.getStartOffset() >= 0) {
+            // Границы чанка в исходном тексте (в символах)
+            metadata.put("startOffset", chunk.getStartOffset());
+            metadata.put("endOffset", chunk.getEndOffset());
+        }
+        return metadata;
+    }
 
-        // Вычисляем норму вектора
+    /**
+     * Норма вектора для столбца embedding_norm
+     */
+    static double embeddingNorm(float[] embedding) {
         double norm = 0;
         for (float value : embedding) {
             norm += value * value;
         }
-        norm = Math.sqrt(norm);
-
-        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            pstmt.setLong(1, documentId);
-            pstmt.setString(2, embeddingToPgVectorString(embedding));
-            pstmt.setDouble(3, norm);
-            pstmt.executeUpdate();
-        }
+        return Math.sqrt(norm);
     }
 
     /**
-     * Массовое добавление документов с эмбеддингами
+     * Массовое добавление документов с эмбеддингами пачками по rag.db.batch-size
      */
-    public void addDocuments(List<SemanticChunker.Chunk> chunks, String clientId, String sourceFileName) {
-        int count = 0;
-        Properties dbParams = new Properties();
-        dbParams.setProperty("user", username);
-        dbParams.setProperty("password", password);
+    public int addDocuments(List<SemanticChunker.Chunk> chunks, String clientId, String sourceFileName) {
+        return addDocuments(chunks, clientId, sourceFileName, batchSize);
+    }
 
-        try (Connection conn = DriverManager.getConnection(dbUrl, dbParams)) {
+    /**
+     * Массовое добавление документов с эмбеддингами пачками по batchSize чанков.
+     * Документы пачки записываются одним запросом INSERT ... ON CONFLICT DO NOTHING,
+     * эмбеддинги добавленных документов - пакетом JDBC с vector в двоичном формате,
+     * все в одной транзакции: текст, уже сохраненный для clientId, пропускается
+     * по уникальному индексу (client_id, content_hash). С фильтром Блума хэши пачки,
+     * возможно уже сохраненные, проверяются заранее одним запросом, чтобы не передавать
+     * их текст и эмбеддинги; точно новые чанки не проверяются. Ошибка отменяет только
+     * свою пачку. Возвращает количество добавленных документов
+     */
+    public int addDocuments(List<SemanticChunker.Chunk> chunks, String clientId, String sourceFileName, int batchSize) {
+        int added = 0;
+        int processed = 0;
+        int failed = 0;
+        long start = System.nanoTime();
+        batchSize = Math.max(1, batchSize);
+
+        try (Connection conn = connectionPool.getConnection();
+             PreparedStatement existingStmt = conn.prepareStatement("""
+                         SELECT encode(content_hash, 'hex') FROM documents
+                         WHERE COALESCE(client_id, '') = ?
+                           AND content_hash = ANY(SELECT decode(h, 'hex') FROM unnest(?::text[]) AS h)
+                     """);
+             PreparedStatement insertStmt = conn.prepareStatement(INSERT_BATCH_SQL);
+             PreparedStatement embeddingStmt = conn.prepareStatement(INSERT_EMBEDDING_SQL)) {
             conn.setAutoCommit(false);
+            BloomFilter bloomFilter = bloomFilter(conn, clientId);
 
-            for (SemanticChunker.Chunk chunk : chunks) {
+            for (int from = 0; from < chunks.size(); from += batchSize) {
+                List<SemanticChunker.Chunk> batch = chunks.subList(from, Math.min(from + batchSize, chunks.size()));
                 try {
-                    JSONObject metadata = new JSONObject();
-                    metadata.put("source", sourceFileName);
-                    metadata.put("chunkType", "semantic");
-                    count += 1;
-                    System.out.print(chunks.size() + " " + count + ": ");
-
-                    // Проверяем дубликат
-                    if (!isDuplicate(conn, chunk.getText())) {
-                        Long documentId = saveDocument(conn, chunk.getText(), metadata.toString(), clientId);
-                        if (documentId != null) {
-                            saveEmbedding(conn, documentId, chunk.getEmbedding());
-                        }
-                    }
-                } catch (Exception e) {
-                    System.err.println("Ошибка при обработке чанка: " + e.getMessage());
+                    added += saveChunkBatch(conn, existingStmt, insertStmt, embeddingStmt, batch,
+                            clientId, sourceFileName, bloomFilter);
+                    conn.commit();
+                } catch (SQLException e) {
+                    conn.rollback();
+                    failed += batch.size();
+                    System.err.println("Ошибка при сохранении пачки чанков " + from + "-" + (from + batch.size())
+                            + ": " + e.getMessage());
                 }
+                processed += batch.size();
+                System.out.println("Обработано " + processed + " из " + chunks.size() + " чанков");
             }
 
-            conn.commit();
-            System.out.println("Добавлено " + count + " документов");
+            double seconds = Math.max(1e-9, (System.nanoTime() - start) / 1e9);
+            System.out.printf("Добавлено %d документов (дубликатов пропущено: %d, не сохранено из-за ошибок: %d) за %.1f мс, %.0f строк/с%n",
+                    added, processed - added - failed, failed, seconds * 1000, 2 * added / seconds);
 
         } catch (SQLException e) {
             System.err.println("Ошибка при массовом добавлении документов: " + e.getMessage());
         }
+        return added;
+    }
+
+    /**
+     * Записывает пачку чанков; возвращает количество добавленных документов.
+     * Транзакцию завершает вызывающий
+     */
+    private int saveChunkBatch(Connection conn, PreparedStatement existingStmt, PreparedStatement insertStmt,
+                               PreparedStatement embeddingStmt, List<SemanticChunker.Chunk> batch,
+                               String clientId, String sourceFileName, BloomFilter bloomFilter) throws SQLException {
+        HexFormat hex = HexFormat.of();
+        // Повторы внутри пачки не передаются: остается первый
+        Set<ByteBuffer> batchHashes = new HashSet<>();
+        List<SemanticChunker.Chunk> fresh = new ArrayList<>();
+        List<String> texts = new ArrayList<>();
+        List<byte[]> hashes = new ArrayList<>();
+        List<String> maybeSaved = new ArrayList<>();
+        for (SemanticChunker.Chunk chunk : batch) {
+            // Текст чанка может создаваться из исходного текста при каждом вызове getText
+            String text = chunk.getText();
+            byte[] hash = contentHash(text);
+            if (!batchHashes.add(ByteBuffer.wrap(hash))) {
+                continue;
+            }
+            fresh.add(chunk);
+            texts.add(text);
+            hashes.add(hash);
+            if (bloomFilter != null && bloomFilter.mightContain(hash)) {
+                maybeSaved.add(hex.formatHex(hash));
+            }
+        }
+
+        // Фильтр Блума: проверяются только хэши, которые, возможно, уже есть в базе
+        Set<String> saved = new HashSet<>();
+        if (!maybeSaved.isEmpty()) {
+            existingStmt.setString(1, clientId == null ? "" : clientId);
+            existingStmt.setArray(2, conn.createArrayOf("text", maybeSaved.toArray()));
+            try (ResultSet rs = existingStmt.executeQuery()) {
+                while (rs.next()) {
+                    saved.add(rs.getString(1));
+                }
+            }
+        }
+
+        List<String> contents = new ArrayList<>();
+        List<String> metadata = new ArrayList<>();
+        List<String> contentHashes = new ArrayList<>();
+        Map<String, float[]> embeddings = new HashMap<>();
+        for (int i = 0; i < fresh.size(); i++) {
+            String contentHash = hex.formatHex(hashes.get(i));
+            if (saved.contains(contentHash)) {
+                continue;
+            }
+            SemanticChunker.Chunk chunk = fresh.get(i);
+            contents.add(texts.get(i));
+            metadata.add(chunkMetadata(chunk, sourceFileName).toString());
+            contentHashes.add(contentHash);
+            embeddings.put(contentHash, chunk.getEmbedding());
+        }
+        if (contents.isEmpty()) {
+            return 0;
+        }
+
+        insertStmt.setString(1, clientId);
+        insertStmt.setArray(2, conn.createArrayOf("text", contents.toArray()));
+        insertStmt.setArray(3, conn.createArrayOf("text", metadata.toArray()));
+        insertStmt.setArray(4, conn.createArrayOf("text", contentHashes.toArray()));
+        int documents = 0;
+        int pendingEmbeddings = 0;
+        try (ResultSet rs = insertStmt.executeQuery()) {
+            while (rs.next()) {
+                documents++;
+                if (bloomFilter != null) {
+                    // Только действительно добавленные: хэши уже сохраненных в фильтре есть
+                    bloomFilter.add(hex.parseHex(rs.getString(2)));
+                }
+                float[] embedding = embeddings.get(rs.getString(2));
+                if (embedding.length > 0) {
+                    embeddingStmt.setLong(1, rs.getLong(1));
+                    embeddingStmt.setObject(2, new PgVector(embedding));
+                    embeddingStmt.setDouble(3, embeddingNorm(embedding));
+                    embeddingStmt.addBatch();
+                    pendingEmbeddings++;
+                }
+            }
+        }
+        if (pendingEmbeddings > 0) {
+            embeddingStmt.executeBatch();
+        }
+        return documents;
+    }
+
+    /**
+     * SHA-256 текста документа в UTF-8 (как sha256(convert_to(content, 'UTF8')) в PostgreSQL)
+     */
+    static byte[] contentHash(String content) {
+        return SHA256.get().digest(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Фильтр Блума хэшей текстов clientId; при первом обращении заполняется хэшами
+     * из базы. null, если фильтры отключены
+     */
+    private BloomFilter bloomFilter(Connection conn, String clientId) throws SQLException {
+        if (bloomFilters == null) {
+            return null;
+        }
+        String key = clientId == null ? "" : clientId;
+        BloomFilter filter = bloomFilters.get(key);
+        if (filter != null && !filter.isSaturated()) {
+            return filter;
+        }
+
+        // Фильтр рассчитывается с запасом: документы клиента продолжают добавляться
+        long count = 0;
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "SELECT COUNT(*) FROM documents WHERE COALESCE(client_id, '') = ?")) {
+            pstmt.setString(1, key);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    count = rs.getLong(1);
+                }
+            }
+        }
+        filter = new BloomFilter(Math.max(BLOOM_MIN_CAPACITY, 2 * count), BLOOM_FALSE_POSITIVE_RATE);
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "SELECT content_hash FROM documents WHERE COALESCE(client_id, '') = ? AND content_hash IS NOT NULL")) {
+            pstmt.setFetchSize(10_000);
+            pstmt.setString(1, key);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    filter.add(rs.getBytes(1));
+                }
+            }
+        }
+        bloomFilters.put(key, filter);
+        System.out.println("Фильтр Блума для client_id " + key + ": " + filter.size() + " хэшей, "
+                + filter.estimateBytes() / 1024 + " КБ");
+        return filter;
+    }
+
+    /**
+     * Добавляет хэш сохраненного документа в фильтр Блума clientId, если он уже создан
+     */
+    private void rememberContentHash(String clientId, byte[] contentHash) {
+        if (bloomFilters != null) {
+            BloomFilter filter = bloomFilters.get(clientId == null ? "" : clientId);
+            if (filter != null) {
+                filter.add(contentHash);
+            }
+        }
     }
 
     /**
      * Получение количества документов в базе
      */
     public int getDocumentCount() {
-        Properties dbParams = new Properties();
-        dbParams.setProperty("user", username);
-        dbParams.setProperty("password", password);
-
-        try (Connection conn = DriverManager.getConnection(dbUrl, dbParams);
+        try (Connection conn = connectionPool.getConnection();
              Statement stmt = conn.createStatement();
              ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM documents")) {
 
@@ -452,17 +737,14 @@ public class DocumentChunker {
     public List<SimilarDocument> getContextDocuments(List<SemanticChunker.Chunk> chunksQuery, String clientId,
                                                      int maxCountDocFromBD, double similarityThreshold) {
         List<SimilarDocument> contextDocuments = new ArrayList<>();
-        Properties dbParams = new Properties();
-        dbParams.setProperty("user", username);
-        dbParams.setProperty("password", password);
-
-        try (Connection conn = DriverManager.getConnection(dbUrl, dbParams)) {
+        try (Connection conn = connectionPool.getConnection()) {
             System.out.println("Поиск контекстных документов для " + chunksQuery.size() + " чанков запроса");
             System.out.println("Порог схожести: " + similarityThreshold);
 
             for (SemanticChunker.Chunk chunk : chunksQuery) {
+                String text = chunk.getText();
                 System.out.println("Обработка чанка: " +
-                        (chunk.getText().length() > 50 ? chunk.getText().substring(0, 50) + "..." : chunk.getText()));
+                        (text.length() > 50 ? text.substring(0, 50) + "..." : text));
 
                 // Получаем документы для текущего чанка
                 List<SimilarDocument> similarDocs = findSimilarDocuments(conn, chunk.getEmbedding(),
@@ -509,20 +791,20 @@ public class DocumentChunker {
                         d.content, 
                         d.metadata,
                         e.embedding,
-                        (1 - (e.embedding <=> ?::vector)) as similarity
+                        (1 - (e.embedding <=> ?)) as similarity
                     FROM embeddings e
                     JOIN documents d ON e.document_id = d.id
                     WHERE d.client_id = ?
-                    ORDER BY e.embedding <=> ?::vector
+                    ORDER BY e.embedding <=> ?
                     LIMIT ?
                 """;
 
         try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
-            String embeddingStr = embeddingToPgVectorString(embedding);
+            PgVector queryVector = new PgVector(embedding);
 
-            pstmt.setString(1, embeddingStr);
+            pstmt.setObject(1, queryVector);
             pstmt.setString(2, clientId);
-            pstmt.setString(3, embeddingStr);
+            pstmt.setObject(3, queryVector);
             pstmt.setInt(4, topK * 3); // Берем больше, чтобы потом отфильтровать
 
             try (ResultSet rs = pstmt.executeQuery()) {
@@ -537,9 +819,8 @@ public class DocumentChunker {
                         continue;
                     }
 
-                    // Получаем embedding как массив float
-                    String embeddingArrayStr = rs.getString("embedding");
-                    float[] embeddingArray = parsePgVectorString(embeddingArrayStr);
+                    // Получаем embedding как массив float (PgVector, в двоичном формате)
+                    float[] embeddingArray = PgVector.toArray(rs.getObject("embedding"));
 
                     SimilarDocument similarDoc = new SimilarDocument(id, content, metadata, similarity, embeddingArray);
                     similarDocuments.add(similarDoc);
@@ -575,53 +856,15 @@ public class DocumentChunker {
         return uniqueDocs;
     }
 
-    /**
-     * Конвертирует массив float в строку для PostgreSQL vector типа
-     */
-    private String embeddingToPgVectorString(float[] embedding) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("[");
-        for (int i = 0; i < embedding.length; i++) {
-            if (i > 0) sb.append(",");
-            sb.append(embedding[i]);
-        }
-        sb.append("]");
-        return sb.toString();
-    }
-
-    /**
-     * Парсит строку PostgreSQL vector в массив float
-     */
-    private float[] parsePgVectorString(String vectorStr) {
-        if (vectorStr == null || vectorStr.isEmpty()) {
-            return new float[0];
-        }
-
-        // Убираем квадратные скобки и разбиваем по запятым
-        String cleanStr = vectorStr.replace("[", "").replace("]", "").trim();
-        if (cleanStr.isEmpty()) {
-            return new float[0];
-        }
-
-        String[] parts = cleanStr.split(",");
-        float[] result = new float[parts.length];
-
-        for (int i = 0; i < parts.length; i++) {
-            result[i] = Float.parseFloat(parts[i].trim());
-        }
-
-        return result;
-    }
-
     /**
      * Удаляет все документы для указанного client_id
      */
     public void clearDocuments(String clientId) {
-        Properties dbParams = new Properties();
-        dbParams.setProperty("user", username);
-        dbParams.setProperty("password", password);
-
-        try (Connection conn = DriverManager.getConnection(dbUrl, dbParams);
+        if (bloomFilters != null) {
+            // Хэши удаленных документов больше не нужны; заново фильтр строится по базе
+            bloomFilters.remove(clientId == null ? "" : clientId);
+        }
+        try (Connection conn = connectionPool.getConnection();
              PreparedStatement pstmt = conn.prepareStatement(
                      "DELETE FROM documents WHERE client_id = ?")) {
 
@@ -634,6 +877,21 @@ public class DocumentChunker {
         }
     }
 
+    /**
+     * Состояние пула соединений с базой (выданные и свободные соединения, время ожидания)
+     */
+    public Map<String, Object> getPoolStats() {
+        return connectionPool.getStats();
+    }
+
+    /**
+     * Закрывает соединения с базой
+     */
+    @Override
+    public void close() {
+        connectionPool.close();
+    }
+
     /**
      * Получает экземпляр SemanticChunker
      */
@@ -641,15 +899,18 @@ public class DocumentChunker {
         return semanticChunker;
     }
 
+    /**
+     * Получает источник эмбеддингов, используемый SemanticChunker
+     */
+    public EmbeddingProvider getEmbeddingProvider() {
+        return semanticChunker.getEmbeddingProvider();
+    }
+
     /**
      * Метод для отладки: получает все документы для clientId
      */
     public List<SimilarDocument> getAllDocuments(String clientId, int limit) {
         List<SimilarDocument> documents = new ArrayList<>();
-        Properties dbParams = new Properties();
-        dbParams.setProperty("user", username);
-        dbParams.setProperty("password", password);
-
         String sql = """
                     SELECT d.id, d.content, d.metadata
                     FROM documents d
@@ -657,7 +918,7 @@ public class DocumentChunker {
                     LIMIT ?
                 """;
 
-        try (Connection conn = DriverManager.getConnection(dbUrl, dbParams);
+        try (Connection conn = connectionPool.getConnection();
              PreparedStatement pstmt = conn.prepareStatement(sql)) {
 
             pstmt.setString(1, clientId);
@@ -0,0 +1,155 @@
+package ru.miacomsoft.semantic;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Эмбеддинги предложений одной матрицей: строки подряд в одном float[]
+ * (строка i начинается с i * dimensions) и нормы строк в double[].
+ *
+ * Группировка просматривает соседние строки, поэтому сходства и суммы считаются
+ * по непрерывной памяти, без объекта и перехода по ссылке на каждое предложение.
+ * Значения строк - распакованные компоненты CompactEmbedding, нормы - его нормы,
+ * поэтому сходства те же, что дает CompactEmbedding.cosineSimilarity для FLOAT32
+ * (для FLOAT16/INT8 - в пределах погрешности float). Сходства считает скалярное ядро
+ * (сумма в double по порядку компонент): по ним группировка сравнивает с порогом,
+ * и границы чанков не зависят от того, доступен ли Vector API. Матрица растет при добавлении
+ * строк и может отбросить первые строки (потоковый режим)
+ */
+public final class EmbeddingMatrix {
+
+    private final int dimensions;
+    private final SimilarityKernel kernel;
+    private float[] data;
+    private double[] norms;
+    private int rows;
+
+    public EmbeddingMatrix(int dimensions, int initialRows) {
+        this.dimensions = dimensions;
+        this.kernel = SimilarityKernel.scalar();
+        this.data = new float[Math.max(1, initialRows) * dimensions];
+        this.norms = new double[Math.max(1, initialRows)];
+    }
+
+    /**
+     * Матрица из списка эмбеддингов (размерность - по первому)
+     */
+    public static EmbeddingMatrix of(List<CompactEmbedding> embeddings) {
+        int dimensions = embeddings.isEmpty() ? 0 : embeddings.get(0).dimensions();
+        EmbeddingMatrix matrix = new EmbeddingMatrix(dimensions, embeddings.size());
+        matrix.addAll(embeddings);
+        return matrix;
+    }
+
+    /**
+     * Добавляет строку в конец матрицы
+     */
+    public void add(CompactEmbedding embedding) {
+        if (embedding.dimensions() != dimensions) {
+            throw new IllegalArgumentException("Размерность эмбеддинга " + embedding.dimensions()
+                    + " не совпадает с размерностью матрицы " + dimensions);
+        }
+        if (rows == norms.length) {
+            int capacity = norms.length * 2;
+            data = Arrays.copyOf(data, capacity * dimensions);
+            norms = Arrays.copyOf(norms, capacity);
+        }
+        embedding.copyTo(data, rows * dimensions);
+        norms[rows] = embedding.norm();
+        rows++;
+    }
+
+    public void addAll(List<CompactEmbedding> embeddings) {
+        for (CompactEmbedding embedding : embeddings) {
+            add(embedding);
+        }
+    }
+
+    public int rows() {
+        return rows;
+    }
+
+    public int dimensions() {
+        return dimensions;
+    }
+
+    /**
+     * Строка row без копирования (только для чтения)
+     */
+    public FloatBuffer row(int row) {
+        checkRow(row);
+        return FloatBuffer.wrap(data, row * dimensions, dimensions).slice().asReadOnlyBuffer();
+    }
+
+    public double norm(int row) {
+        checkRow(row);
+        return norms[row];
+    }
+
+    /**
+     * Косинусное сходство строк a и b; 0, если одна из них нулевая
+     */
+    public double cosineSimilarity(int a, int b) {
+        checkRow(a);
+        checkRow(b);
+        double dotProduct = kernel.dot(data, a * dimensions, data, b * dimensions, dimensions);
+        if (norms[a] == 0 || norms[b] == 0) {
+            return 0.0;
+        }
+        return dotProduct / (norms[a] * norms[b]);
+    }
+
+    /**
+     * Прибавляет строки [from, to) к accumulator покомпонентно, строку за строкой
+     */
+    public void sumRows(int from, int to, float[] accumulator) {
+        if (from < 0 || to > rows || from > to) {
+            throw new IndexOutOfBoundsException("Строки [" + from + ", " + to + ") вне матрицы из " + rows + " строк");
+        }
+        for (int row = from; row < to; row++) {
+            addRow(row, accumulator);
+        }
+    }
+
+    /**
+     * Прибавляет строку row к accumulator покомпонентно
+     */
+    public void addRow(int row, float[] accumulator) {
+        checkRow(row);
+        int offset = row * dimensions;
+        for (int i = 0; i < dimensions; i++) {
+            accumulator[i] += data[offset + i];
+        }
+    }
+
+    /**
+     * Копия строк, каждая нормализована (скалярное произведение строк равно косинусному сходству)
+     */
+    public float[] normalizedRows() {
+        float[] normalized = Arrays.copyOf(data, rows * dimensions);
+        for (int row = 0; row < rows; row++) {
+            SimilarityKernel.normalize(normalized, row * dimensions, dimensions);
+        }
+        return normalized;
+    }
+
+    /**
+     * Отбрасывает первые count строк; нумерация строк сдвигается
+     */
+    public void dropPrefix(int count) {
+        if (count <= 0) {
+            return;
+        }
+        count = Math.min(count, rows);
+        System.arraycopy(data, count * dimensions, data, 0, (rows - count) * dimensions);
+        System.arraycopy(norms, count, norms, 0, rows - count);
+        rows -= count;
+    }
+
+    private void checkRow(int row) {
+        if (row < 0 || row >= rows) {
+            throw new IndexOutOfBoundsException("Строка " + row + " вне матрицы из " + rows + " строк");
+        }
+    }
+}
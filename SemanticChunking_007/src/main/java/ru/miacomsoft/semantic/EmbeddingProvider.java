@@ -0,0 +1,56 @@
+package ru.miacomsoft.semantic;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Источник эмбеддингов для SemanticChunker и DocumentChunker.
+ * Позволяет подменить сервер Ollama, например, детерминированной
+ * генерацией векторов для тестов производительности без модели
+ */
+public interface EmbeddingProvider {
+
+    /**
+     * Получает эмбеддинг для одного текста
+     */
+    float[] getEmbedding(String text) throws Exception;
+
+    /**
+     * Получает эмбеддинги для списка текстов, сохраняя их порядок
+     */
+    default List<float[]> getEmbeddings(List<String> texts) throws Exception {
+        List<float[]> embeddings = new ArrayList<>(texts.size());
+        for (String text : texts) {
+            embeddings.add(getEmbedding(text));
+        }
+        return embeddings;
+    }
+
+    /**
+     * Имя модели эмбеддингов
+     */
+    String getModelName();
+
+    /**
+     * Рабочая статистика источника (например, текущий лимит одновременных запросов)
+     */
+    default Map<String, Object> getStats() {
+        return Map.of();
+    }
+
+    /**
+     * Создает провайдер по параметру rag.embedding.provider (ollama | hash)
+     */
+    static EmbeddingProvider fromConfig(ConfigLoader configLoader, int batchSize) {
+        String provider = configLoader.getEmbeddingProviderName();
+        return switch (provider) {
+            case "hash" -> new HashEmbeddingProvider();
+            case "ollama" -> new OllamaEmbeddingProvider(configLoader, batchSize);
+            default -> {
+                System.err.println("Неизвестный провайдер эмбеддингов: " + provider + ", используется ollama");
+                yield new OllamaEmbeddingProvider(configLoader, batchSize);
+            }
+        };
+    }
+}
@@ -0,0 +1,367 @@
+package ru.miacomsoft.semantic;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Потоковый разбор ответов Ollama с эмбеддингами прямо из байтов тела ответа.
+ *
+ * В отличие от разбора через org.json, не создает строку ответа, JSONObject,
+ * JSONArray и упакованные числа: числа массива "embedding" / "embeddings"
+ * читаются из байтов в переиспользуемый буфер float, и на каждый вектор
+ * выделяется только итоговый float[]. Экземпляр не потокобезопасен,
+ * для параллельного использования берите forCurrentThread()
+ */
+public final class EmbeddingResponseDecoder {
+
+    private static final ThreadLocal<EmbeddingResponseDecoder> DECODERS =
+            ThreadLocal.withInitial(EmbeddingResponseDecoder::new);
+
+    private static final byte[] EMBEDDING_KEY = "embedding".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] EMBEDDINGS_KEY = "embeddings".getBytes(StandardCharsets.US_ASCII);
+
+    // Степени 10, точно представимые в double
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+            1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    // Больше 18 цифр не помещаются в long без переполнения
+    private static final int MAX_MANTISSA_DIGITS = 18;
+
+    private float[] values = new float[1024];
+    private byte[] data;
+    private int position;
+
+    /**
+     * Декодер, закрепленный за текущим потоком
+     */
+    public static EmbeddingResponseDecoder forCurrentThread() {
+        return DECODERS.get();
+    }
+
+    /**
+     * Разбирает ответ /api/embeddings: {"embedding": [..]}
+     */
+    public float[] decodeEmbedding(byte[] body) {
+        reset(body);
+        try {
+            if (!seekTopLevelKey(EMBEDDING_KEY)) {
+                throw error("в ответе нет поля embedding");
+            }
+            return readVector();
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw error("неожиданный конец ответа");
+        } finally {
+            data = null;
+        }
+    }
+
+    /**
+     * Разбирает ответ /api/embed: {"embeddings": [[..], [..]]}
+     */
+    public List<float[]> decodeEmbeddings(byte[] body) {
+        reset(body);
+        try {
+            return readVectors();
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw error("неожиданный конец ответа");
+        } finally {
+            data = null;
+        }
+    }
+
+    private List<float[]> readVectors() {
+        if (!seekTopLevelKey(EMBEDDINGS_KEY)) {
+            throw error("в ответе нет поля embeddings");
+        }
+
+        List<float[]> vectors = new ArrayList<>();
+        expect('[');
+        skipWhitespace();
+        if (peek() == ']') {
+            position++;
+            return vectors;
+        }
+        while (true) {
+            vectors.add(readVector());
+            skipWhitespace();
+            byte next = data[position++];
+            if (next == ']') {
+                return vectors;
+            }
+            if (next != ',') {
+                throw error("ожидалась ',' или ']'");
+            }
+        }
+    }
+
+    private void reset(byte[] body) {
+        this.data = body;
+        this.position = 0;
+    }
+
+    /**
+     * Проходит по полям объекта верхнего уровня до ключа key, пропуская остальные значения
+     */
+    private boolean seekTopLevelKey(byte[] key) {
+        expect('{');
+        skipWhitespace();
+        if (peek() == '}') {
+            return false;
+        }
+        while (true) {
+            skipWhitespace();
+            boolean matches = readKeyAndCompare(key);
+            expect(':');
+            if (matches) {
+                skipWhitespace();
+                return true;
+            }
+            skipValue();
+            skipWhitespace();
+            byte next = data[position++];
+            if (next == '}') {
+                return false;
+            }
+            if (next != ',') {
+                throw error("ожидалась ',' или '}'");
+            }
+        }
+    }
+
+    /**
+     * Читает строку-ключ и сравнивает ее с key без создания String
+     */
+    private boolean readKeyAndCompare(byte[] key) {
+        expect('"');
+        int start = position;
+        boolean escaped = false;
+        while (true) {
+            byte b = data[position++];
+            if (b == '\\') {
+                escaped = true;
+                position++;
+            } else if (b == '"') {
+                break;
+            }
+        }
+        int length = position - 1 - start;
+        if (escaped || length != key.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (data[start + i] != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Читает массив чисел в буфер и возвращает float[] точной длины
+     */
+    private float[] readVector() {
+        expect('[');
+        int count = 0;
+        skipWhitespace();
+        if (peek() == ']') {
+            position++;
+            return new float[0];
+        }
+        while (true) {
+            if (count == values.length) {
+                float[] grown = new float[values.length * 2];
+                System.arraycopy(values, 0, grown, 0, count);
+                values = grown;
+            }
+            skipWhitespace();
+            values[count++] = (float) readNumber();
+            skipWhitespace();
+            byte next = data[position++];
+            if (next == ']') {
+                break;
+            }
+            if (next != ',') {
+                throw error("ожидалась ',' или ']' в массиве чисел");
+            }
+        }
+        float[] vector = new float[count];
+        System.arraycopy(values, 0, vector, 0, count);
+        return vector;
+    }
+
+    /**
+     * Разбирает число JSON. Мантисса до 2^53 и порядок до 22 дают точный результат
+     * (быстрый путь Клингера); более длинные числа округляются с погрешностью
+     * в пределах нескольких ulp double, что ниже точности итогового float
+     */
+    private double readNumber() {
+        boolean negative = false;
+        if (position < data.length && data[position] == '-') {
+            negative = true;
+            position++;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean any = false;
+
+        byte b;
+        while (position < data.length && (b = data[position]) >= '0' && b <= '9') {
+            any = true;
+            if (digits < MAX_MANTISSA_DIGITS) {
+                mantissa = mantissa * 10 + (b - '0');
+                if (mantissa != 0) {
+                    digits++;
+                }
+            } else {
+                exponent++;
+            }
+            position++;
+        }
+
+        if (position < data.length && data[position] == '.') {
+            position++;
+            while (position < data.length && (b = data[position]) >= '0' && b <= '9') {
+                any = true;
+                if (digits < MAX_MANTISSA_DIGITS) {
+                    mantissa = mantissa * 10 + (b - '0');
+                    if (mantissa != 0) {
+                        digits++;
+                    }
+                    exponent--;
+                }
+                position++;
+            }
+        }
+
+        if (!any) {
+            throw error("ожидалось число");
+        }
+
+        if (position < data.length && (data[position] == 'e' || data[position] == 'E')) {
+            position++;
+            boolean negativeExponent = false;
+            if (position < data.length && (data[position] == '+' || data[position] == '-')) {
+                negativeExponent = data[position] == '-';
+                position++;
+            }
+            int value = 0;
+            boolean anyExponent = false;
+            while (position < data.length && (b = data[position]) >= '0' && b <= '9') {
+                anyExponent = true;
+                if (value < 10000) {
+                    value = value * 10 + (b - '0');
+                }
+                position++;
+            }
+            if (!anyExponent) {
+                throw error("ожидалось число");
+            }
+            exponent += negativeExponent ? -value : value;
+        }
+
+        double result = scale(mantissa, exponent);
+        return negative ? -result : result;
+    }
+
+    private static double scale(long mantissa, int exponent) {
+        if (mantissa == 0) {
+            return 0.0;
+        }
+        double value = mantissa;
+        if (exponent == 0) {
+            return value;
+        }
+        if (exponent > 0) {
+            while (exponent > 22) {
+                value *= 1e22;
+                exponent -= 22;
+            }
+            return value * POWERS_OF_TEN[exponent];
+        }
+        while (exponent < -22) {
+            value /= 1e22;
+            exponent += 22;
+        }
+        return value / POWERS_OF_TEN[-exponent];
+    }
+
+    /**
+     * Пропускает произвольное значение JSON (строку, число, литерал, объект, массив)
+     */
+    private void skipValue() {
+        skipWhitespace();
+        byte b = data[position];
+        if (b == '"') {
+            skipString();
+        } else if (b == '{' || b == '[') {
+            int depth = 0;
+            do {
+                b = data[position];
+                if (b == '"') {
+                    skipString();
+                    continue;
+                }
+                if (b == '{' || b == '[') {
+                    depth++;
+                } else if (b == '}' || b == ']') {
+                    depth--;
+                }
+                position++;
+            } while (depth > 0);
+        } else {
+            while (position < data.length) {
+                b = data[position];
+                if (b == ',' || b == '}' || b == ']' || isWhitespace(b)) {
+                    break;
+                }
+                position++;
+            }
+        }
+    }
+
+    private void skipString() {
+        position++; // открывающая кавычка
+        while (true) {
+            byte b = data[position++];
+            if (b == '\\') {
+                position++;
+            } else if (b == '"') {
+                return;
+            }
+        }
+    }
+
+    private void skipWhitespace() {
+        while (position < data.length && isWhitespace(data[position])) {
+            position++;
+        }
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+    }
+
+    private byte peek() {
+        if (position >= data.length) {
+            throw error("неожиданный конец ответа");
+        }
+        return data[position];
+    }
+
+    private void expect(char c) {
+        skipWhitespace();
+        if (peek() != c) {
+            throw error("ожидался символ '" + c + "'");
+        }
+        position++;
+    }
+
+    private RuntimeException error(String message) {
+        return new RuntimeException("Ошибка разбора ответа с эмбеддингом (позиция " + position + "): " + message);
+    }
+}
@@ -0,0 +1,95 @@
+package ru.miacomsoft.semantic;
+
+import java.util.SplittableRandom;
+
+/**
+ * Детерминированный провайдер эмбеддингов без обращения к серверу модели.
+ * Каждое слово порождает псевдослучайный вектор, засеянный хэшем слова;
+ * эмбеддинг текста - нормализованная сумма векторов его слов. Предложения с общими
+ * словами получают близкие векторы, поэтому группировка ведет себя правдоподобно.
+ * Используется для замеров группировки, хранения и поиска и для нагрузочных тестов
+ */
+public class HashEmbeddingProvider implements EmbeddingProvider {
+
+    // Размерность по умолчанию совпадает с all-minilm и столбцом vector(384)
+    public static final int DEFAULT_DIMENSIONS = 384;
+
+    private final int dimensions;
+
+    public HashEmbeddingProvider() {
+        this(DEFAULT_DIMENSIONS);
+    }
+
+    public HashEmbeddingProvider(int dimensions) {
+        if (dimensions <= 0) {
+            throw new IllegalArgumentException("Размерность должна быть положительной: " + dimensions);
+        }
+        this.dimensions = dimensions;
+    }
+
+    @Override
+    public float[] getEmbedding(String text) {
+        float[] embedding = new float[dimensions];
+        int words = 0;
+        int wordStart = -1;
+
+        for (int i = 0; i <= text.length(); i++) {
+            boolean letter = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (letter && wordStart < 0) {
+                wordStart = i;
+            } else if (!letter && wordStart >= 0) {
+                addWordVector(embedding, text, wordStart, i);
+                wordStart = -1;
+                words++;
+            }
+        }
+
+        // Текст без слов (знаки препинания, пустая строка) хэшируем целиком
+        if (words == 0) {
+            addWordVector(embedding, text, 0, text.length());
+        }
+
+        normalize(embedding);
+        return embedding;
+    }
+
+    @Override
+    public String getModelName() {
+        return "hash-" + dimensions;
+    }
+
+    public int getDimensions() {
+        return dimensions;
+    }
+
+    /**
+     * Добавляет к эмбеддингу вектор слова text[start, end), засеянный его хэшем
+     */
+    private void addWordVector(float[] embedding, String text, int start, int end) {
+        // FNV-1a по символам слова в нижнем регистре
+        long hash = 0xcbf29ce484222325L;
+        for (int i = start; i < end; i++) {
+            hash ^= Character.toLowerCase(text.charAt(i));
+            hash *= 0x100000001b3L;
+        }
+
+        SplittableRandom random = new SplittableRandom(hash);
+        for (int j = 0; j < dimensions; j++) {
+            embedding[j] += (float) (random.nextDouble() * 2.0 - 1.0);
+        }
+    }
+
+    private static void normalize(float[] vector) {
+        double norm = 0;
+        for (float value : vector) {
+            norm += value * value;
+        }
+        norm = Math.sqrt(norm);
+
+        if (norm > 0) {
+            for (int j = 0; j < vector.length; j++) {
+                vector[j] /= norm;
+            }
+        }
+    }
+}
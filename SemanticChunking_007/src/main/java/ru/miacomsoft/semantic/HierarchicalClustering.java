@@ -0,0 +1,232 @@
+package ru.miacomsoft.semantic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Жадная кластеризация предложений по порогу сходства без полной матрицы сходства.
+ *
+ * Результат тот же, что у прежней кластеризации по матрице n x n: первое
+ * нераспределенное предложение становится центром кластера и забирает все
+ * следующие нераспределенные предложения со сходством не ниже порога. Вместо
+ * матрицы сходства вычисляются только строки центров, и только для еще не
+ * распределенных предложений. Строки очередного блока возможных центров
+ * считаются параллельно (fork/join) и хранятся как битовые маски "выше порога";
+ * размер блока ограничен memoryCapBytes и подстраивается под долю кандидатов,
+ * действительно ставших центрами (строки поглощенных кандидатов - лишняя работа);
+ * маски выделяются под текущий размер блока и растут вместе с ним.
+ * В memoryCapBytes входят и сами строки rows (нормализованная копия n x dimensions,
+ * которую делает вызывающий код): маскам достается остаток, но не меньше одной строки.
+ * Строка единственного кандидата делится между потоками по диапазонам предложений.
+ * Параметр band ограничивает сравнение
+ * предложениями на расстоянии не больше band (0 - весь текст)
+ */
+public class HierarchicalClustering {
+
+    public static final int DEFAULT_MEMORY_MB = 64;
+
+    // Строки, сравниваемые с центром за один вызов ядра (помещаются в кэш процессора)
+    private static final int ROW_CHUNK = 512;
+    // Центров на одну параллельную задачу
+    private static final int CANDIDATES_PER_TASK = 8;
+    // Наименьший диапазон строки одного центра для отдельной задачи (кратен 64 битам маски)
+    private static final int MIN_BITS_PER_TASK = 4096;
+    // Наибольшая длина массива, которую выделяют все JVM
+    private static final int MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;
+
+    private final int band;
+    private final long memoryCapBytes;
+    private final ForkJoinPool pool;
+    private final SimilarityKernel kernel;
+
+    public HierarchicalClustering() {
+        this(0, DEFAULT_MEMORY_MB * 1024L * 1024L);
+    }
+
+    public HierarchicalClustering(int band, long memoryCapBytes) {
+        this(band, memoryCapBytes, ForkJoinPool.commonPool(), SimilarityKernel.get());
+    }
+
+    public HierarchicalClustering(int band, long memoryCapBytes, ForkJoinPool pool, SimilarityKernel kernel) {
+        this.band = Math.max(0, band);
+        this.memoryCapBytes = Math.max(1, memoryCapBytes);
+        this.pool = pool;
+        this.kernel = kernel;
+    }
+
+    /**
+     * Параметры из rag.clustering.band и rag.clustering.memory-mb
+     */
+    public static HierarchicalClustering fromConfig(ConfigLoader configLoader) {
+        return new HierarchicalClustering(configLoader.getClusteringBand(),
+                configLoader.getClusteringMemoryMb() * 1024L * 1024L);
+    }
+
+    /**
+     * Кластеризует n нормализованных строк rows (строка i начинается с i * dimensions):
+     * предложение j попадает в кластер центра i, если скалярное произведение не ниже threshold
+     */
+    public List<List<Integer>> cluster(float[] rows, int n, int dimensions, double threshold) {
+        List<List<Integer>> clusters = new ArrayList<>();
+        boolean[] assigned = new boolean[n];
+
+        // Ширина строки маски: сколько следующих предложений сравнивается с центром
+        int width = band > 0 ? Math.min(band, Math.max(1, n - 1)) : Math.max(1, n - 1);
+        int wordsPerRow = (width + 63) >>> 6;
+        // Нормализованные строки уже занимают часть предела памяти
+        long maskBytes = memoryCapBytes - 4L * rows.length;
+        long maxRows = Math.max(1, Math.min(n, maskBytes / (8L * wordsPerRow)));
+        int blockRows = (int) Math.min(maxRows, MAX_ARRAY_LENGTH / wordsPerRow);
+
+        int parallelism = Math.max(1, pool.getParallelism());
+        int blockSize = Math.min(blockRows, parallelism);
+        long[] masks = new long[blockSize * wordsPerRow];
+        int[] candidates = new int[blockSize];
+
+        int next = 0;
+        while (next < n) {
+            // Следующие нераспределенные предложения - возможные центры кластеров
+            int count = 0;
+            while (next < n && count < blockSize) {
+                if (!assigned[next]) {
+                    candidates[count++] = next;
+                }
+                next++;
+            }
+            if (count == 0) {
+                break;
+            }
+
+            Arrays.fill(masks, 0, count * wordsPerRow, 0L);
+            pool.invoke(new MaskTask(rows, n, dimensions, threshold, width, wordsPerRow,
+                    assigned, candidates, masks, 0, count, 0, width));
+
+            // Последовательно, как в исходном алгоритме: центр забирает еще свободные предложения
+            int centers = 0;
+            for (int k = 0; k < count; k++) {
+                int center = candidates[k];
+                if (assigned[center]) {
+                    continue;
+                }
+                List<Integer> cluster = new ArrayList<>();
+                cluster.add(center);
+                assigned[center] = true;
+
+                int base = k * wordsPerRow;
+                for (int word = 0; word < wordsPerRow; word++) {
+                    long bits = masks[base + word];
+                    while (bits != 0) {
+                        int j = center + 1 + (word << 6) + Long.numberOfTrailingZeros(bits);
+                        bits &= bits - 1;
+                        if (!assigned[j]) {
+                            cluster.add(j);
+                            assigned[j] = true;
+                        }
+                    }
+                }
+                clusters.add(cluster);
+                centers++;
+            }
+
+            // Большинство кандидатов стали центрами - блок увеличивается, иначе уменьшается
+            blockSize = centers * 2 >= count
+                    ? (int) Math.min(blockRows, blockSize * 2L)
+                    : Math.max(1, blockSize / 2);
+            if (blockSize > candidates.length) {
+                masks = new long[blockSize * wordsPerRow];
+                candidates = new int[blockSize];
+            }
+        }
+        return clusters;
+    }
+
+    /**
+     * Вычисляет маски "сходство не ниже порога" для центров candidates[from, to);
+     * для одного центра - только биты [bitFrom, bitTo) его строки
+     */
+    private final class MaskTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final float[] rows;
+        private final int n;
+        private final int dimensions;
+        private final double threshold;
+        private final int width;
+        private final int wordsPerRow;
+        private final boolean[] assigned;
+        private final int[] candidates;
+        private final long[] masks;
+        private final int from;
+        private final int to;
+        private final int bitFrom;
+        private final int bitTo;
+
+        MaskTask(float[] rows, int n, int dimensions, double threshold, int width, int wordsPerRow,
+                 boolean[] assigned, int[] candidates, long[] masks, int from, int to, int bitFrom, int bitTo) {
+            this.rows = rows;
+            this.n = n;
+            this.dimensions = dimensions;
+            this.threshold = threshold;
+            this.width = width;
+            this.wordsPerRow = wordsPerRow;
+            this.assigned = assigned;
+            this.candidates = candidates;
+            this.masks = masks;
+            this.from = from;
+            this.to = to;
+            this.bitFrom = bitFrom;
+            this.bitTo = bitTo;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > CANDIDATES_PER_TASK) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new MaskTask(rows, n, dimensions, threshold, width, wordsPerRow,
+                                assigned, candidates, masks, from, middle, 0, width),
+                        new MaskTask(rows, n, dimensions, threshold, width, wordsPerRow,
+                                assigned, candidates, masks, middle, to, 0, width));
+                return;
+            }
+            if (to - from == 1 && bitTo - bitFrom > 2 * MIN_BITS_PER_TASK) {
+                // Граница кратна 64, поэтому половины пишут в разные слова маски
+                int middle = bitFrom + (((bitTo - bitFrom) >>> 1) & ~63);
+                invokeAll(new MaskTask(rows, n, dimensions, threshold, width, wordsPerRow,
+                                assigned, candidates, masks, from, to, bitFrom, middle),
+                        new MaskTask(rows, n, dimensions, threshold, width, wordsPerRow,
+                                assigned, candidates, masks, from, to, middle, bitTo));
+                return;
+            }
+
+            double[] similarities = new double[ROW_CHUNK];
+            for (int k = from; k < to; k++) {
+                int center = candidates[k];
+                int end = (int) Math.min(n, (long) center + 1 + bitTo);
+                int base = k * wordsPerRow;
+                int j = center + 1 + bitFrom;
+                while (j < end) {
+                    // Уже распределенные предложения не сравниваются: их кластер не изменится
+                    if (assigned[j]) {
+                        j++;
+                        continue;
+                    }
+                    int runEnd = j + 1;
+                    while (runEnd < end && runEnd - j < ROW_CHUNK && !assigned[runEnd]) {
+                        runEnd++;
+                    }
+                    kernel.dotOneToMany(rows, center * dimensions, rows, j, runEnd, dimensions, similarities, 0);
+                    for (int row = j; row < runEnd; row++) {
+                        if (similarities[row - j] >= threshold) {
+                            int bit = row - center - 1;
+                            masks[base + (bit >>> 6)] |= 1L << bit;
+                        }
+                    }
+                    j = runEnd;
+                }
+            }
+        }
+    }
+}
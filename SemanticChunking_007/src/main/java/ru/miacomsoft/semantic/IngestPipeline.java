@@ -0,0 +1,484 @@
+package ru.miacomsoft.semantic;
+
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Конвейер загрузки текста в базу: чтение -> предложения -> эмбеддинги -> чанки -> запись.
+ *
+ * Каждая стадия работает в своем потоке и связана со следующей ограниченной очередью:
+ * быстрая стадия ждет на заполненной очереди, поэтому в памяти не больше емкости очередей,
+ * а сервер эмбеддингов и база данных заняты одновременно - пока пачка чанков пишется
+ * в базу, следующие предложения уже вычисляются. Чанки те же, что дает
+ * SemanticChunker.semanticChunking(Reader, int, Consumer). Группировки, которым нужен
+ * весь текст (кластеризация, точки разрыва), выполняются одной стадией "чанки".
+ *
+ * По каждой стадии считаются обработанные элементы, время ожидания входа (стадия
+ * простаивает) и выхода (следующая стадия не успевает), глубина входной очереди;
+ * статистика печатается каждые reportIntervalMs и в конце
+ */
+public class IngestPipeline {
+
+    // Конец данных в очереди
+    private static final Object END = new Object();
+    // Неполная пачка чанков записывается, если следующий чанк не пришел за это время
+    private static final long WRITE_FLUSH_MS = 1_000;
+
+    /**
+     * Запись пачки чанков (стадия записи); возвращает количество сохраненных документов
+     */
+    @FunctionalInterface
+    public interface ChunkWriter {
+        int write(List<SemanticChunker.Chunk> chunks) throws Exception;
+    }
+
+    private final SemanticChunker semanticChunker;
+    private final ChunkWriter writer;
+    private final int maxChunkSize;
+    private final int writeBatchSize;
+    private final int queueCapacity;
+    private final int embeddingInFlight;
+    private final long reportIntervalMs;
+
+    private final List<Stage> stages = new ArrayList<>();
+    private long startNanos;
+    private long endNanos;
+    private int chunkCount;
+    private int savedCount;
+
+    public IngestPipeline(SemanticChunker semanticChunker, ChunkWriter writer, int maxChunkSize,
+                          int writeBatchSize, int queueCapacity, int embeddingInFlight, long reportIntervalMs) {
+        this.semanticChunker = semanticChunker;
+        this.writer = writer;
+        this.maxChunkSize = maxChunkSize;
+        this.writeBatchSize = Math.max(1, writeBatchSize);
+        this.queueCapacity = Math.max(1, queueCapacity);
+        this.embeddingInFlight = Math.max(1, embeddingInFlight);
+        this.reportIntervalMs = Math.max(0, reportIntervalMs);
+    }
+
+    /**
+     * Конвейер с параметрами из ConfigLoader (rag.ingest.*, пачка записи - rag.db.batch-size)
+     */
+    public static IngestPipeline fromConfig(ConfigLoader configLoader, SemanticChunker semanticChunker,
+                                            ChunkWriter writer, int maxChunkSize) {
+        return new IngestPipeline(semanticChunker, writer, maxChunkSize, configLoader.getDbBatchSize(),
+                configLoader.getIngestQueueCapacity(), configLoader.getIngestEmbeddingInFlight(),
+                configLoader.getIngestReportIntervalMs());
+    }
+
+    /**
+     * Загружает файл (UTF-8), см. run(Reader)
+     */
+    public int run(Path path) throws Exception {
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            return run(reader);
+        }
+    }
+
+    /**
+     * Загружает текст из Reader; возвращает сумму результатов ChunkWriter.write.
+     * Ошибка любой стадии останавливает конвейер и пробрасывается
+     */
+    public int run(Reader reader) throws Exception {
+        stages.clear();
+        chunkCount = 0;
+        savedCount = 0;
+        startNanos = System.nanoTime();
+
+        Stage write = new Stage("запись", "чанков", writeBatchSize * 2);
+        List<Task> tasks = new ArrayList<>();
+        if (semanticChunker.isStreamingSupported()) {
+            Stage read = new Stage("чтение", "блоков", 0);
+            Stage split = new Stage("предложения", "предложений", queueCapacity);
+            Stage embed = new Stage("эмбеддинги", "предложений", queueCapacity);
+            Stage group = new Stage("чанки", "чанков", embeddingInFlight);
+            stages.addAll(List.of(read, split, embed, group, write));
+            tasks.add(() -> readText(reader, read, split.input));
+            tasks.add(() -> splitSentences(split, embed.input));
+            tasks.add(() -> embedSentences(embed, group.input));
+            tasks.add(() -> groupChunks(group, write.input));
+        } else {
+            Stage chunk = new Stage("чанки", "чанков", 0);
+            stages.addAll(List.of(chunk, write));
+            tasks.add(() -> chunkWholeText(reader, chunk, write.input));
+        }
+        tasks.add(() -> writeChunks(write));
+
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<?>> futures = new CopyOnWriteArrayList<>();
+            for (Task task : tasks) {
+                futures.add(executor.submit(() -> {
+                    try {
+                        task.run();
+                    } catch (Throwable e) {
+                        // Первая ошибка останавливает остальные стадии (ожидание в очередях прерывается)
+                        if (failure.compareAndSet(null, e)) {
+                            futures.forEach(future -> future.cancel(true));
+                        }
+                    }
+                    return null;
+                }));
+            }
+            if (failure.get() != null) {
+                futures.forEach(future -> future.cancel(true));
+            }
+            Future<?> reporter = reportIntervalMs > 0 ? executor.submit(this::reportPeriodically) : null;
+
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (CancellationException | ExecutionException e) {
+                    // Причина - в failure
+                }
+            }
+            if (reporter != null) {
+                reporter.cancel(true);
+            }
+        }
+        // Здесь все стадии уже завершены
+        endNanos = System.nanoTime();
+
+        Throwable error = failure.get();
+        if (error != null) {
+            System.err.println("Конвейер загрузки остановлен: " + error.getMessage());
+            printStats();
+            if (error instanceof Exception exception) {
+                throw exception;
+            }
+            throw new IllegalStateException(error);
+        }
+
+        printStats();
+        return savedCount;
+    }
+
+    /**
+     * Количество чанков последнего запуска
+     */
+    public int getChunkCount() {
+        return chunkCount;
+    }
+
+    /**
+     * Статистика стадий последнего запуска (в порядке конвейера): элементов, элементов в секунду,
+     * ожидание входа и выхода (мс), глубина входной очереди (текущая, средняя, наибольшая, емкость)
+     */
+    public Map<String, Map<String, Object>> getStats() {
+        double seconds = elapsedSeconds();
+        Map<String, Map<String, Object>> stats = new LinkedHashMap<>();
+        for (Stage stage : stages) {
+            Map<String, Object> stageStats = new LinkedHashMap<>();
+            stageStats.put("items", stage.items.get());
+            stageStats.put("itemsPerSecond", stage.items.get() / seconds);
+            stageStats.put("inputWaitMs", stage.inputWaitNanos.get() / 1_000_000.0);
+            stageStats.put("outputWaitMs", stage.outputWaitNanos.get() / 1_000_000.0);
+            if (stage.input != null) {
+                stageStats.put("queueDepth", stage.input.size());
+                stageStats.put("queueAverageDepth", stage.averageDepth());
+                stageStats.put("queueMaxDepth", stage.maxDepth);
+                stageStats.put("queueCapacity", stage.capacity);
+            }
+            stats.put(stage.name, stageStats);
+        }
+        return stats;
+    }
+
+    /**
+     * Стадия чтения: блоки текста по STREAM_BUFFER_SIZE символов
+     */
+    private void readText(Reader reader, Stage stage, BlockingQueue<Object> output) throws Exception {
+        char[] buffer = new char[SemanticChunker.STREAM_BUFFER_SIZE];
+        int read;
+        while (true) {
+            long start = System.nanoTime();
+            read = reader.read(buffer);
+            stage.inputWaitNanos.addAndGet(System.nanoTime() - start);
+            if (read == -1) {
+                break;
+            }
+            stage.put(output, Arrays.copyOf(buffer, read));
+            stage.items.incrementAndGet();
+        }
+        stage.put(output, END);
+    }
+
+    /**
+     * Стадия разбиения: пачки предложений с границами в тексте. Первая пачка небольшая,
+     * чтобы первые чанки появились быстро, следующие вдвое больше (до STREAM_EMBEDDING_BATCH)
+     */
+    private void splitSentences(Stage stage, BlockingQueue<Object> output) throws Exception {
+        SemanticChunker.SourceSentences[] pending = {new SemanticChunker.SourceSentences(null)};
+        int[] batchSize = {SemanticChunker.PIPELINE_FIRST_BATCH};
+        List<SemanticChunker.SourceSentences> ready = new ArrayList<>();
+        SentenceSplitter splitter = new SentenceSplitter((sentence, start, end) -> {
+            pending[0].add(sentence, start, end);
+            if (pending[0].size() >= batchSize[0]) {
+                ready.add(pending[0]);
+                pending[0] = new SemanticChunker.SourceSentences(null);
+                batchSize[0] = Math.min(SemanticChunker.STREAM_EMBEDDING_BATCH, batchSize[0] * 2);
+            }
+        });
+
+        Object block;
+        while ((block = stage.take()) != END) {
+            char[] text = (char[]) block;
+            splitter.feed(text, 0, text.length);
+            sendSentences(stage, ready, output);
+        }
+        splitter.finish();
+        if (pending[0].size() > 0) {
+            ready.add(pending[0]);
+        }
+        sendSentences(stage, ready, output);
+        stage.put(output, END);
+    }
+
+    private static void sendSentences(Stage stage, List<SemanticChunker.SourceSentences> ready,
+                                      BlockingQueue<Object> output) throws InterruptedException {
+        for (SemanticChunker.SourceSentences batch : ready) {
+            stage.put(output, batch);
+            stage.items.addAndGet(batch.size());
+        }
+        ready.clear();
+    }
+
+    /**
+     * Стадия эмбеддинга: пачки отправляются на сервер в виртуальных потоках, не дожидаясь
+     * предыдущих; в очередь группировки попадают в порядке текста. Очередь вмещает
+     * embeddingInFlight пачек, поэтому больше пачек одновременно не ожидается
+     */
+    private void embedSentences(Stage stage, BlockingQueue<Object> output) throws Exception {
+        try (ExecutorService requests = Executors.newVirtualThreadPerTaskExecutor()) {
+            Object batch;
+            while ((batch = stage.take()) != END) {
+                SemanticChunker.SourceSentences sentences = (SemanticChunker.SourceSentences) batch;
+                CompletableFuture<List<CompactEmbedding>> embeddings = CompletableFuture.supplyAsync(() -> {
+                    try {
+                        List<CompactEmbedding> result = semanticChunker.embedSentences(sentences.list());
+                        stage.items.addAndGet(sentences.size());
+                        return result;
+                    } catch (Exception e) {
+                        throw new CompletionException(e);
+                    }
+                }, requests);
+                stage.put(output, new EmbeddedBatch(sentences, embeddings));
+            }
+            stage.put(output, END);
+        }
+    }
+
+    private record EmbeddedBatch(SemanticChunker.SourceSentences sentences,
+                                 CompletableFuture<List<CompactEmbedding>> embeddings) {
+    }
+
+    /**
+     * Стадия группировки: скользящее окно по готовым пачкам; ожидание эмбеддингов
+     * считается ожиданием входа
+     */
+    private void groupChunks(Stage stage, BlockingQueue<Object> output) throws Exception {
+        SemanticChunker.SlidingWindowStream stream = semanticChunker.slidingWindowStream(maxChunkSize,
+                chunk -> putChunk(stage, output, chunk));
+        Object item;
+        while ((item = stage.take()) != END) {
+            EmbeddedBatch batch = (EmbeddedBatch) item;
+            List<CompactEmbedding> embeddings;
+            long start = System.nanoTime();
+            try {
+                embeddings = batch.embeddings().join();
+            } catch (CompletionException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof Exception exception ? exception : e;
+            } finally {
+                stage.inputWaitNanos.addAndGet(System.nanoTime() - start);
+            }
+            stream.append(batch.sentences(), embeddings);
+        }
+        stream.finish();
+        stage.put(output, END);
+    }
+
+    /**
+     * Стадия чанков для группировок без потокового режима: текст читается целиком
+     */
+    private void chunkWholeText(Reader reader, Stage stage, BlockingQueue<Object> output) throws Exception {
+        semanticChunker.semanticChunking(reader, maxChunkSize, chunk -> putChunk(stage, output, chunk));
+        stage.put(output, END);
+    }
+
+    private void putChunk(Stage stage, BlockingQueue<Object> output, SemanticChunker.Chunk chunk) {
+        try {
+            stage.put(output, chunk);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Конвейер загрузки прерван", e);
+        }
+        stage.items.incrementAndGet();
+        chunkCount++;
+    }
+
+    /**
+     * Стадия записи: пачки до writeBatchSize чанков; неполная пачка записывается,
+     * если следующий чанк не пришел за WRITE_FLUSH_MS
+     */
+    private void writeChunks(Stage stage) throws Exception {
+        List<SemanticChunker.Chunk> batch = new ArrayList<>(writeBatchSize);
+        boolean finished = false;
+        while (!finished) {
+            Object item = batch.isEmpty() ? stage.take() : stage.poll(WRITE_FLUSH_MS);
+            if (item == END) {
+                finished = true;
+            } else if (item != null) {
+                batch.add((SemanticChunker.Chunk) item);
+            }
+            if (!batch.isEmpty() && (finished || item == null || batch.size() >= writeBatchSize)) {
+                savedCount += writer.write(batch);
+                stage.items.addAndGet(batch.size());
+                batch = new ArrayList<>(writeBatchSize);
+            }
+        }
+    }
+
+    private void reportPeriodically() {
+        try {
+            while (true) {
+                Thread.sleep(reportIntervalMs);
+                System.out.println("Конвейер: " + formatStats(false));
+            }
+        } catch (InterruptedException e) {
+            // Конвейер завершен
+        }
+    }
+
+    private void printStats() {
+        System.out.printf("Конвейер загрузки: %d чанков, сохранено %d, за %.1f с%n",
+                chunkCount, savedCount, elapsedSeconds());
+        System.out.println(formatStats(true));
+    }
+
+    /**
+     * Строка статистики: по стадиям элементы в секунду и входная очередь (текущая/емкость);
+     * в итоге - ожидание входа и выхода и средняя и наибольшая глубина очереди
+     */
+    private String formatStats(boolean summary) {
+        double seconds = elapsedSeconds();
+        StringBuilder sb = new StringBuilder();
+        for (Stage stage : stages) {
+            if (summary) {
+                sb.append(String.format("  %-12s %8d %-12s %9.0f/с  ожидание входа %8.0f мс, выхода %8.0f мс",
+                        stage.name, stage.items.get(), stage.unit, stage.items.get() / seconds,
+                        stage.inputWaitNanos.get() / 1e6, stage.outputWaitNanos.get() / 1e6));
+                if (stage.input != null) {
+                    sb.append(String.format(", очередь: средняя %.1f, наибольшая %d из %d",
+                            stage.averageDepth(), stage.maxDepth, stage.capacity));
+                }
+                sb.append('\n');
+            } else {
+                if (!sb.isEmpty()) {
+                    sb.append(" | ");
+                }
+                sb.append(String.format("%s %.0f/с", stage.name, stage.items.get() / seconds));
+                if (stage.input != null) {
+                    sb.append(String.format(" (очередь %d/%d)", stage.input.size(), stage.capacity));
+                }
+            }
+        }
+        return summary ? sb.toString().stripTrailing() : sb.toString();
+    }
+
+    private double elapsedSeconds() {
+        long end = endNanos > startNanos ? endNanos : System.nanoTime();
+        return Math.max(1e-9, (end - startNanos) / 1e9);
+    }
+
+    @FunctionalInterface
+    private interface Task {
+        void run() throws Exception;
+    }
+
+    /**
+     * Стадия конвейера: входная очередь (null у первой стадии) и счетчики
+     */
+    private static final class Stage {
+        private final String name;
+        private final String unit;
+        private final int capacity;
+        private final BlockingQueue<Object> input;
+        private final AtomicLong items = new AtomicLong();
+        private final AtomicLong inputWaitNanos = new AtomicLong();
+        private final AtomicLong outputWaitNanos = new AtomicLong();
+        // Глубина входной очереди перед каждым взятием элемента (пишет только поток стадии)
+        private final AtomicLong depthSum = new AtomicLong();
+        private final AtomicLong depthSamples = new AtomicLong();
+        private volatile int maxDepth;
+
+        Stage(String name, String unit, int capacity) {
+            this.name = name;
+            this.unit = unit;
+            this.capacity = capacity;
+            this.input = capacity > 0 ? new ArrayBlockingQueue<>(capacity) : null;
+        }
+
+        Object take() throws InterruptedException {
+            sampleDepth();
+            long start = System.nanoTime();
+            Object item = input.take();
+            inputWaitNanos.addAndGet(System.nanoTime() - start);
+            return item;
+        }
+
+        Object poll(long timeoutMs) throws InterruptedException {
+            sampleDepth();
+            long start = System.nanoTime();
+            Object item = input.poll(timeoutMs, TimeUnit.MILLISECONDS);
+            inputWaitNanos.addAndGet(System.nanoTime() - start);
+            return item;
+        }
+
+        /**
+         * Передает элемент следующей стадии; ждет, пока в ее очереди есть место
+         */
+        void put(BlockingQueue<Object> output, Object item) throws InterruptedException {
+            if (!output.offer(item)) {
+                long start = System.nanoTime();
+                output.put(item);
+                outputWaitNanos.addAndGet(System.nanoTime() - start);
+            }
+        }
+
+        private void sampleDepth() {
+            int depth = input.size();
+            depthSum.addAndGet(depth);
+            depthSamples.incrementAndGet();
+            if (depth > maxDepth) {
+                maxDepth = depth;
+            }
+        }
+
+        double averageDepth() {
+            long samples = depthSamples.get();
+            return samples == 0 ? 0 : (double) depthSum.get() / samples;
+        }
+    }
+}
@@ -0,0 +1,448 @@
+package ru.miacomsoft.semantic;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.net.ConnectException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Получение эмбеддингов через HTTP API Ollama.
+ * Пакетный эндпоинт /api/embed (rag.embedding.batch-endpoint=true) отправляет
+ * batchSize предложений одним запросом; на старых серверах Ollama без /api/embed
+ * автоматически используется /api/embeddings с одним prompt на запрос.
+ *
+ * Количество одновременных запросов подбирается во время работы
+ * (AdaptiveConcurrencyLimiter): растет, пока сервер отвечает быстро,
+ * и уменьшается при росте задержки и ответах 429/502/503/504. Перегруженные запросы повторяются
+ * с экспоненциальной задержкой со случайным разбросом (или через Retry-After сервера);
+ * если сервер недоступен (соединение не установлено), запрос не повторяется
+ */
+public class OllamaEmbeddingProvider implements EmbeddingProvider {
+
+    private final HttpClient httpClient;
+    private final String ollamaBaseUrl;
+    private final String embeddingModel;
+    private final int batchSize;
+    private final AdaptiveConcurrencyLimiter concurrencyLimiter;
+    private final boolean useBatchEndpoint;
+    private volatile boolean batchEndpointSupported = true;
+
+    // Количество одновременных запросов к Ollama по умолчанию
+    static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 4;
+
+    // Сколько раз отправлять запрос, получивший ответ о перегрузке
+    private static final int MAX_ATTEMPTS = 4;
+    // Задержка перед повтором: RETRY_BASE_DELAY_MS * 2^(попытка - 1), не больше RETRY_MAX_DELAY_MS,
+    // случайно от половины до полной; Retry-After сервера - не больше RETRY_AFTER_MAX_MS
+    private static final long RETRY_BASE_DELAY_MS = 200;
+    private static final long RETRY_MAX_DELAY_MS = 5_000;
+    private static final long RETRY_AFTER_MAX_MS = 60_000;
+
+    // Повторы ждут разрешения ограничителя в виртуальных потоках, а не в потоках HttpClient
+    private static final ExecutorService RETRY_EXECUTOR = Executors.newVirtualThreadPerTaskExecutor();
+
+    /**
+     * Конструктор с ConfigLoader
+     */
+    public OllamaEmbeddingProvider(ConfigLoader configLoader, int batchSize) {
+        this(configLoader.getOllamaUrl(),
+                configLoader.getProperties().getProperty("rag.embedding.model", "all-minilm:22m"),
+                batchSize,
+                configLoader.isEmbeddingAdaptiveConcurrencyEnabled()
+                        ? new AdaptiveConcurrencyLimiter(configLoader.getEmbeddingInitialConcurrentRequests(),
+                                1, configLoader.getEmbeddingMaxConcurrentRequests())
+                        : AdaptiveConcurrencyLimiter.fixed(configLoader.getEmbeddingMaxConcurrentRequests()),
+                configLoader.isEmbeddingBatchEndpointEnabled());
+    }
+
+    /**
+     * Конструктор с явными параметрами подключения и фиксированным лимитом одновременных запросов
+     */
+    public OllamaEmbeddingProvider(String ollamaBaseUrl, String embeddingModel, int batchSize,
+                                   int maxConcurrentRequests, boolean useBatchEndpoint) {
+        this(ollamaBaseUrl, embeddingModel, batchSize,
+                AdaptiveConcurrencyLimiter.fixed(Math.max(1, maxConcurrentRequests)), useBatchEndpoint);
+    }
+
+    /**
+     * Конструктор с заданным ограничителем одновременных запросов
+     */
+    public OllamaEmbeddingProvider(String ollamaBaseUrl, String embeddingModel, int batchSize,
+                                   AdaptiveConcurrencyLimiter concurrencyLimiter, boolean useBatchEndpoint) {
+        this.httpClient = HttpClient.newHttpClient();
+        this.ollamaBaseUrl = ollamaBaseUrl;
+        this.embeddingModel = embeddingModel;
+        this.batchSize = batchSize;
+        this.concurrencyLimiter = concurrencyLimiter;
+        this.useBatchEndpoint = useBatchEndpoint;
+    }
+
+    @Override
+    public String getModelName() {
+        return embeddingModel;
+    }
+
+    /**
+     * Текущий лимит одновременных запросов, очередь ожидающих и счетчики перегрузок
+     */
+    @Override
+    public Map<String, Object> getStats() {
+        return concurrencyLimiter.getStats();
+    }
+
+    /**
+     * Пакетное получение эмбеддингов через Ollama API.
+     * Сначала используется /api/embed с массивом input, при его отсутствии на сервере -
+     * запросы по одному предложению к /api/embeddings
+     */
+    @Override
+    public List<float[]> getEmbeddings(List<String> sentences) throws Exception {
+        if (useBatchEndpoint && batchEndpointSupported) {
+            try {
+                return getEmbeddingsViaBatchEndpoint(sentences);
+            } catch (BatchEndpointUnsupportedException e) {
+                System.out.println("Сервер не поддерживает /api/embed, пробуем /api/embeddings");
+                // Запоминаем выбор, только когда /api/embeddings действительно ответил
+                List<float[]> embeddings = getEmbeddingsOneByOne(sentences);
+                if (batchEndpointSupported) {
+                    batchEndpointSupported = false;
+                    System.out.println("Переключаемся на /api/embeddings");
+                }
+                return embeddings;
+            }
+        }
+        return getEmbeddingsOneByOne(sentences);
+    }
+
+    /**
+     * Параллельное получение эмбеддингов пачками по batchSize предложений через /api/embed.
+     * Количество запросов в полёте ограничивает concurrencyLimiter,
+     * результаты возвращаются в порядке предложений
+     */
+    private List<float[]> getEmbeddingsViaBatchEndpoint(List<String> sentences) throws Exception {
+        float[][] embeddings = new float[sentences.size()][];
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        int step = Math.max(1, batchSize);
+
+        for (int i = 0; i < sentences.size(); i += step) {
+            // Не отправляем новые запросы после первой ошибки
+            if (failure.get() != null) {
+                break;
+            }
+
+            final int offset = i;
+            List<String> batch = sentences.subList(i, Math.min(i + step, sentences.size()));
+            // Ожидание разрешения ограничителя происходит внутри вызова
+            CompletableFuture<Void> future = getBatchEmbeddingsAsync(batch).thenAccept(batchEmbeddings -> {
+                for (int k = 0; k < batchEmbeddings.size(); k++) {
+                    embeddings[offset + k] = batchEmbeddings.get(k);
+                }
+            });
+            futures.add(future.whenComplete((ignored, error) -> {
+                if (error != null) {
+                    failure.compareAndSet(null, error);
+                }
+            }));
+        }
+
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+        } catch (CompletionException e) {
+            throw unwrapCompletionException(e);
+        }
+
+        return Arrays.asList(embeddings);
+    }
+
+    /**
+     * Параллельное получение эмбеддингов по одному предложению через /api/embeddings
+     * (для серверов Ollama без /api/embed). Количество запросов в полёте ограничивает
+     * concurrencyLimiter, результаты возвращаются в порядке предложений
+     */
+    private List<float[]> getEmbeddingsOneByOne(List<String> sentences) throws Exception {
+        float[][] embeddings = new float[sentences.size()][];
+        List<CompletableFuture<Void>> futures = new ArrayList<>(sentences.size());
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        for (int i = 0; i < sentences.size(); i++) {
+            // Не отправляем новые запросы после первой ошибки
+            if (failure.get() != null) {
+                break;
+            }
+
+            final int index = i;
+            // Ожидание разрешения ограничителя происходит внутри вызова
+            CompletableFuture<Void> future = getSingleEmbeddingAsync(sentences.get(i))
+                    .thenAccept(embedding -> embeddings[index] = embedding);
+            futures.add(future.whenComplete((ignored, error) -> {
+                if (error != null) {
+                    failure.compareAndSet(null, error);
+                }
+            }));
+        }
+
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+        } catch (CompletionException e) {
+            throw unwrapCompletionException(e);
+        }
+
+        return Arrays.asList(embeddings);
+    }
+
+    /**
+     * Асинхронно получает эмбеддинги для пачки текстов одним запросом к /api/embed
+     */
+    private CompletableFuture<List<float[]>> getBatchEmbeddingsAsync(List<String> texts) {
+        JSONObject requestBody = new JSONObject();
+        requestBody.put("model", embeddingModel);
+        requestBody.put("input", new JSONArray(texts));
+
+        System.out.println("Получение эмбеддингов для пачки из " + texts.size() + " предложений");
+
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(ollamaBaseUrl + "/api/embed"))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(requestBody.toString()))
+                .build();
+
+        return sendWithConcurrencyLimit(request, 1)
+                .thenApply(response -> parseBatchEmbeddingResponse(response, texts.size()));
+    }
+
+    /**
+     * Разбирает ответ /api/embed (массив embeddings) в список массивов float
+     */
+    private List<float[]> parseBatchEmbeddingResponse(HttpResponse<byte[]> response, int expectedCount) {
+        // Старые версии Ollama не знают /api/embed и отвечают 404 без JSON.
+        // Ответ {"error": ...} с 404 - ошибка самого запроса (например, модель не найдена)
+        if ((response.statusCode() == 404 || response.statusCode() == 405) && !isOllamaError(response)) {
+            throw new BatchEndpointUnsupportedException();
+        }
+        if (response.statusCode() != 200) {
+            throw new RuntimeException("Ошибка при получении эмбеддингов: " + bodyAsString(response));
+        }
+
+        List<float[]> embeddings = EmbeddingResponseDecoder.forCurrentThread().decodeEmbeddings(response.body());
+        if (embeddings.size() != expectedCount) {
+            throw new RuntimeException("Ожидалось " + expectedCount + " эмбеддингов, получено " +
+                    embeddings.size());
+        }
+
+        return embeddings;
+    }
+
+    /**
+     * Сигнализирует, что сервер Ollama не поддерживает /api/embed
+     */
+    private static class BatchEndpointUnsupportedException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        BatchEndpointUnsupportedException() {
+            super("Эндпоинт /api/embed не поддерживается сервером");
+        }
+    }
+
+    /**
+     * Асинхронно получает эмбеддинг для одного текста через Ollama API
+     */
+    private CompletableFuture<float[]> getSingleEmbeddingAsync(String text) {
+        return sendWithConcurrencyLimit(buildEmbeddingRequest(text), 1)
+                .thenApply(this::parseEmbeddingResponse);
+    }
+
+    /**
+     * Отправляет запрос, дождавшись разрешения ограничителя. Задержка ответа и признаки
+     * перегрузки (429, 502-504, сетевые ошибки) передаются ограничителю; перегруженный
+     * запрос повторяется до MAX_ATTEMPTS раз после задержки retryDelayMillis.
+     * Недоступный сервер (ConnectException) не перегружен - запрос сразу завершается ошибкой
+     */
+    private CompletableFuture<HttpResponse<byte[]>> sendWithConcurrencyLimit(HttpRequest request, int attempt) {
+        try {
+            concurrencyLimiter.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.failedFuture(e);
+        }
+
+        long start = System.nanoTime();
+        CompletableFuture<HttpResponse<byte[]>> sent;
+        try {
+            sent = httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray());
+        } catch (RuntimeException e) {
+            concurrencyLimiter.onIgnore();
+            return CompletableFuture.failedFuture(e);
+        }
+
+        return sent.handle((response, error) -> {
+            if (error == null && !isOverloaded(response.statusCode())) {
+                if (response.statusCode() >= 500) {
+                    // Ошибка самого запроса (нет модели, неверный ввод): не повторяем и лимит не трогаем
+                    concurrencyLimiter.onIgnore();
+                } else {
+                    concurrencyLimiter.onSuccess(System.nanoTime() - start);
+                }
+                return CompletableFuture.completedFuture(response);
+            }
+
+            Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+            if (cause instanceof ConnectException) {
+                concurrencyLimiter.onIgnore();
+                return CompletableFuture.<HttpResponse<byte[]>>failedFuture(cause);
+            }
+
+            concurrencyLimiter.onOverload();
+            if (attempt < MAX_ATTEMPTS) {
+                long delay = retryDelayMillis(response, attempt);
+                System.out.println("Повтор запроса эмбеддингов через " + delay + " мс (попытка " + (attempt + 1)
+                        + " из " + MAX_ATTEMPTS + ")");
+                // Ожидание разрешения ограничителя - в виртуальном потоке после задержки
+                return CompletableFuture.supplyAsync(() -> sendWithConcurrencyLimit(request, attempt + 1),
+                                CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS, RETRY_EXECUTOR))
+                        .thenCompose(future -> future);
+            }
+            return cause != null
+                    ? CompletableFuture.<HttpResponse<byte[]>>failedFuture(cause)
+                    : CompletableFuture.completedFuture(response);
+        }).thenCompose(future -> future);
+    }
+
+    /**
+     * Задержка перед повтором: Retry-After из ответа (секунды или HTTP-дата) или
+     * экспоненциальная задержка со случайным разбросом, чтобы повторы не шли волной
+     */
+    private static long retryDelayMillis(HttpResponse<?> response, int attempt) {
+        if (response != null) {
+            Optional<String> retryAfter = response.headers().firstValue("Retry-After");
+            if (retryAfter.isPresent()) {
+                long delay = parseRetryAfterMillis(retryAfter.get().trim());
+                if (delay >= 0) {
+                    return Math.min(delay, RETRY_AFTER_MAX_MS);
+                }
+            }
+        }
+        long backoff = Math.min(RETRY_MAX_DELAY_MS, RETRY_BASE_DELAY_MS << Math.min(20, attempt - 1));
+        return backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+    }
+
+    /**
+     * Retry-After в миллисекундах; -1, если значение не разобрано
+     */
+    private static long parseRetryAfterMillis(String value) {
+        try {
+            return Math.min(Math.max(0, Long.parseLong(value)), RETRY_AFTER_MAX_MS / 1000) * 1000;
+        } catch (NumberFormatException e) {
+            // Не число секунд - HTTP-дата
+        }
+        try {
+            ZonedDateTime date = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME);
+            return Math.max(0, Duration.between(ZonedDateTime.now(date.getZone()), date).toMillis());
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Ответы, означающие перегрузку сервера: 429 Too Many Requests, 502 Bad Gateway,
+     * 503 Service Unavailable, 504 Gateway Timeout. Прочие 5xx (Ollama отвечает 500,
+     * например, на неизвестную модель) повторять бесполезно
+     */
+    private static boolean isOverloaded(int statusCode) {
+        return statusCode == 429 || statusCode == 502 || statusCode == 503 || statusCode == 504;
+    }
+
+    /**
+     * Получает эмбеддинг для одного текста через Ollama API
+     */
+    @Override
+    public float[] getEmbedding(String text) throws Exception {
+        try {
+            return getSingleEmbeddingAsync(text).join();
+        } catch (CompletionException e) {
+            throw unwrapCompletionException(e);
+        }
+    }
+
+    /**
+     * Формирует запрос к /api/embeddings для одного текста
+     */
+    private HttpRequest buildEmbeddingRequest(String text) {
+        JSONObject requestBody = new JSONObject();
+        requestBody.put("model", embeddingModel);
+        requestBody.put("prompt", text);
+
+        System.out.println("Получение эмбеддинга для: " +
+                (text.length() > 50 ? text.substring(0, 50) + "..." : text));
+
+        return HttpRequest.newBuilder()
+                .uri(URI.create(ollamaBaseUrl + "/api/embeddings"))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(requestBody.toString()))
+                .build();
+    }
+
+    /**
+     * Разбирает ответ /api/embeddings в массив float
+     */
+    private float[] parseEmbeddingResponse(HttpResponse<byte[]> response) {
+        if (response.statusCode() != 200) {
+            throw new RuntimeException("Ошибка при получении эмбеддинга: " + bodyAsString(response));
+        }
+
+        return EmbeddingResponseDecoder.forCurrentThread().decodeEmbedding(response.body());
+    }
+
+    /**
+     * Тело ответа - JSON Ollama с полем error
+     */
+    private static boolean isOllamaError(HttpResponse<byte[]> response) {
+        String body = bodyAsString(response).trim();
+        if (!body.startsWith("{")) {
+            return false;
+        }
+        try {
+            return new JSONObject(body).has("error");
+        } catch (JSONException e) {
+            return false;
+        }
+    }
+
+    private static String bodyAsString(HttpResponse<byte[]> response) {
+        return new String(response.body(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Извлекает исходное исключение из CompletionException
+     */
+    private static Exception unwrapCompletionException(CompletionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof Exception exception) {
+            return exception;
+        }
+        return e;
+    }
+
+}
@@ -0,0 +1,976 @@
+package ru.miacomsoft.semantic;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Замеры производительности горячих участков без сервера модели и базы данных.
+ *
+ * Запуск: java ru.miacomsoft.semantic.PerformanceBenchmark [сценарий ...]
+ * Без аргументов выполняются все сценарии. Для каждого варианта печатается
+ * время на операцию и объем выделенной памяти на операцию (после прогрева)
+ */
+public class PerformanceBenchmark {
+
+    // Результаты операций складываются сюда, чтобы JIT не выбросил вычисления
+    private static volatile double sink;
+
+    public static void main(String[] args) {
+        List<String> scenarios = args.length > 0 ? List.of(args) : List.of("decode", "quantization", "splitter", "grouping", "similarity", "clustering", "parallel", "chunks", "breakpoints", "pipeline", "pgvector", "ingest");
+
+        for (String scenario : scenarios) {
+            switch (scenario) {
+                case "decode" -> benchmarkResponseDecoding();
+                case "quantization" -> benchmarkQuantization();
+                case "splitter" -> benchmarkSentenceSplitting();
+                case "grouping" -> benchmarkGrouping();
+                case "similarity" -> benchmarkSimilarityKernels();
+                case "clustering" -> benchmarkClustering();
+                case "parallel" -> benchmarkParallelChunking();
+                case "chunks" -> benchmarkChunkMemory();
+                case "breakpoints" -> benchmarkBreakpoints();
+                case "pipeline" -> benchmarkPipeline();
+                case "pgvector" -> benchmarkPgVectorCodec();
+                case "ingest" -> benchmarkIngestPipeline();
+                default -> System.err.println("Неизвестный сценарий: " + scenario);
+            }
+        }
+    }
+
+    /**
+     * Разбор ответов Ollama: org.json (прежний путь) против EmbeddingResponseDecoder
+     */
+    private static void benchmarkResponseDecoding() {
+        System.out.println("\n=== РАЗБОР ОТВЕТОВ С ЭМБЕДДИНГАМИ ===");
+        Random random = new Random(42);
+
+        // /api/embeddings возвращает float64 с 16-17 значащими цифрами
+        float[] expected = new float[384];
+        JSONArray single = new JSONArray();
+        for (int i = 0; i < expected.length; i++) {
+            double value = random.nextGaussian() * 0.05;
+            expected[i] = (float) value;
+            single.put(value);
+        }
+        byte[] singleBody = new JSONObject().put("embedding", single).toString().getBytes(StandardCharsets.UTF_8);
+
+        // /api/embed возвращает пачку float32 с кратчайшей записью
+        JSONArray batch = new JSONArray();
+        for (int k = 0; k < 10; k++) {
+            JSONArray vector = new JSONArray();
+            for (int i = 0; i < 384; i++) {
+                vector.put((float) (random.nextGaussian() * 0.05));
+            }
+            batch.put(vector);
+        }
+        byte[] batchBody = new JSONObject().put("model", "all-minilm").put("embeddings", batch)
+                .toString().getBytes(StandardCharsets.UTF_8);
+
+        EmbeddingResponseDecoder decoder = new EmbeddingResponseDecoder();
+        float[] decoded = decoder.decodeEmbedding(singleBody);
+        float maxError = 0;
+        for (int i = 0; i < expected.length; i++) {
+            maxError = Math.max(maxError, Math.abs(decoded[i] - expected[i]));
+        }
+        System.out.println("Максимальное расхождение с Double.parseDouble: " + maxError);
+
+        measure("org.json, /api/embeddings (384 float64)", 20_000, 50_000,
+                () -> parseWithOrgJson(singleBody).length);
+        measure("decoder,  /api/embeddings (384 float64)", 20_000, 50_000,
+                () -> decoder.decodeEmbedding(singleBody).length);
+        measure("org.json, /api/embed (10 x 384 float32)", 2_000, 5_000,
+                () -> parseBatchWithOrgJson(batchBody).size());
+        measure("decoder,  /api/embed (10 x 384 float32)", 2_000, 5_000,
+                () -> decoder.decodeEmbeddings(batchBody).size());
+    }
+
+    private static float[] parseWithOrgJson(byte[] body) {
+        JSONArray embeddingArray = new JSONObject(new String(body, StandardCharsets.UTF_8)).getJSONArray("embedding");
+        float[] embedding = new float[embeddingArray.length()];
+        for (int i = 0; i < embeddingArray.length(); i++) {
+            embedding[i] = (float) embeddingArray.getDouble(i);
+        }
+        return embedding;
+    }
+
+    private static List<float[]> parseBatchWithOrgJson(byte[] body) {
+        JSONArray embeddingsArray = new JSONObject(new String(body, StandardCharsets.UTF_8)).getJSONArray("embeddings");
+        List<float[]> embeddings = new ArrayList<>(embeddingsArray.length());
+        for (int i = 0; i < embeddingsArray.length(); i++) {
+            JSONArray embeddingArray = embeddingsArray.getJSONArray(i);
+            float[] embedding = new float[embeddingArray.length()];
+            for (int j = 0; j < embeddingArray.length(); j++) {
+                embedding[j] = (float) embeddingArray.getDouble(j);
+            }
+            embeddings.add(embedding);
+        }
+        return embeddings;
+    }
+
+    /**
+     * Компактные эмбеддинги: погрешность косинусного сходства относительно float32,
+     * объем в куче и скорость сравнения для каждого формата хранения
+     */
+    private static void benchmarkQuantization() {
+        System.out.println("\n=== КОМПАКТНОЕ ХРАНЕНИЕ ЭМБЕДДИНГОВ ===");
+        HashEmbeddingProvider provider = new HashEmbeddingProvider();
+        Random random = new Random(42);
+
+        // Пары похожих предложений (общая часть слов) дают сходство во всем диапазоне
+        int count = 2000;
+        List<float[]> vectors = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            StringBuilder sentence = new StringBuilder();
+            for (int w = 0; w < 12; w++) {
+                sentence.append("слово").append(random.nextInt(60)).append(' ');
+            }
+            vectors.add(provider.getEmbedding(sentence.toString()));
+        }
+
+        SemanticChunker reference = new SemanticChunker(provider, 0.7, true, 3);
+        for (CompactEmbedding.Storage storage : CompactEmbedding.Storage.values()) {
+            List<CompactEmbedding> compact = new ArrayList<>(count);
+            long bytes = 0;
+            for (float[] vector : vectors) {
+                CompactEmbedding embedding = CompactEmbedding.of(vector, storage);
+                compact.add(embedding);
+                bytes += embedding.estimateBytes();
+            }
+
+            double maxError = 0;
+            double sumError = 0;
+            for (int i = 0; i + 1 < count; i++) {
+                double expected = reference.cosineSimilarity(vectors.get(i), vectors.get(i + 1));
+                double error = Math.abs(compact.get(i).cosineSimilarity(compact.get(i + 1)) - expected);
+                maxError = Math.max(maxError, error);
+                sumError += error;
+            }
+            System.out.printf("%-8s %6d байт/вектор, погрешность сходства: макс %.6f, средняя %.6f%n",
+                    storage, bytes / count, maxError, sumError / (count - 1));
+
+            measure("cosineSimilarity, " + storage + " (384)", 200_000, 1_000_000, new Operation() {
+                private int index;
+
+                @Override
+                public double run() {
+                    index = (index + 1) % (count - 1);
+                    return compact.get(index).cosineSimilarity(compact.get(index + 1));
+                }
+            });
+        }
+        measure("cosineSimilarity, float[] (384)", 200_000, 1_000_000, new Operation() {
+            private int index;
+
+            @Override
+            public double run() {
+                index = (index + 1) % (count - 1);
+                return reference.cosineSimilarity(vectors.get(index), vectors.get(index + 1));
+            }
+        });
+    }
+
+    /**
+     * Разделение большого русского текста на предложения: прежний путь через регулярные
+     * выражения против однопроходного SentenceSplitter
+     */
+    private static void benchmarkSentenceSplitting() {
+        System.out.println("\n=== РАЗДЕЛЕНИЕ НА ПРЕДЛОЖЕНИЯ ===");
+        String text = generateRussianText(8_000_000, 42);
+        double megabytes = text.length() * 2 / 1_000_000.0;
+
+        List<String> expected = splitWithRegex(text);
+        List<String> actual = SentenceSplitter.split(text);
+        System.out.println("Текст: " + text.length() + " символов, " + expected.size()
+                + " предложений, результаты совпадают: " + expected.equals(actual));
+
+        int[] spanSum = new int[1];
+        double regex = measure("regex (replaceAll + Pattern)", 3, 5, () -> splitWithRegex(text).size());
+        double scan = measure("SentenceSplitter.scan (только границы)", 3, 5,
+                () -> SentenceSplitter.scan(text, (start, end) -> spanSum[0] += end - start));
+        double split = measure("SentenceSplitter.split (строки предложений)", 3, 5,
+                () -> SentenceSplitter.split(text).size());
+        System.out.printf("Пропускная способность (МБ текста UTF-16 в секунду): regex %.0f, scan %.0f, split %.0f%n",
+                megabytes * 1e9 / regex, megabytes * 1e9 / scan, megabytes * 1e9 / split);
+    }
+
+    /**
+     * Прежняя реализация SemanticChunker.splitIntoSentencesAdvanced (для сравнения)
+     */
+    private static List<String> splitWithRegex(String text) {
+        List<String> sentences = new ArrayList<>();
+        text = text.replaceAll("\\s+", " ").trim();
+        Pattern pattern = Pattern.compile("(?<=[.!?])\\s+(?=[А-ЯA-Z\"«(])");
+        Matcher matcher = pattern.matcher(text);
+        int lastEnd = 0;
+        while (matcher.find()) {
+            String sentence = text.substring(lastEnd, matcher.start()).trim();
+            if (!sentence.isEmpty()) {
+                sentences.add(sentence);
+            }
+            lastEnd = matcher.end();
+        }
+        String lastSentence = text.substring(lastEnd).trim();
+        if (!lastSentence.isEmpty()) {
+            sentences.add(lastSentence);
+        }
+        return sentences;
+    }
+
+    /**
+     * Группировка 100 000 предложений скользящим окном: прежний алгоритм (пересчет
+     * окна и соседних пар на каждом шаге) против группировки с однократным вычислением сходств
+     */
+    private static void benchmarkGrouping() {
+        double threshold = Double.parseDouble(System.getProperty("threshold", "0.3"));
+        System.out.println("\n=== ГРУППИРОВКА СКОЛЬЗЯЩИМ ОКНОМ ===");
+        List<String> sentences = new ArrayList<>(SentenceSplitter.split(generateRussianText(8_000_000, 7)));
+        sentences = sentences.subList(0, Math.min(100_000, sentences.size()));
+        HashEmbeddingProvider provider = new HashEmbeddingProvider();
+        List<CompactEmbedding> embeddings = new ArrayList<>(sentences.size());
+        for (String sentence : sentences) {
+            embeddings.add(CompactEmbedding.of(provider.getEmbedding(sentence), CompactEmbedding.Storage.FLOAT32));
+        }
+        List<String> allSentences = sentences;
+        EmbeddingMatrix matrix = EmbeddingMatrix.of(embeddings);
+
+        for (int windowSize : new int[]{3, 5}) {
+            SemanticChunker chunker = new SemanticChunker(provider, threshold, true, windowSize);
+            List<SemanticChunker.Chunk> expected = groupWithRecomputation(allSentences, embeddings, threshold, windowSize, 800);
+            List<SemanticChunker.Chunk> actual = chunker.groupSentencesWithSlidingWindow(allSentences, matrix, 800);
+            boolean same = expected.size() == actual.size();
+            for (int i = 0; same && i < expected.size(); i++) {
+                same = expected.get(i).getPosition() == actual.get(i).getPosition()
+                        && expected.get(i).getText().equals(actual.get(i).getText());
+            }
+            System.out.println(allSentences.size() + " предложений, окно " + windowSize + ": чанков "
+                    + actual.size() + ", границы совпадают: " + same);
+
+            PrintStream out = System.out;
+            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+            double before = measureQuietly(() -> groupWithRecomputation(allSentences, embeddings, threshold, windowSize, 800).size());
+            double after = measureQuietly(() -> chunker.groupSentencesWithSlidingWindow(allSentences, matrix, 800).size());
+            System.setOut(out);
+            System.out.printf("%-50s %12.1f мс%n", "прежняя группировка, окно " + windowSize, before / 1e6);
+            System.out.printf("%-50s %12.1f мс%n", "однократные сходства, EmbeddingMatrix, окно " + windowSize, after / 1e6);
+        }
+    }
+
+    /**
+     * Разделение всего текста: последовательный semanticChunking против
+     * semanticChunkingParallel (части текста по пустым строкам, fork/join).
+     * Эмбеддинги в обоих вариантах вычисляет HashEmbeddingProvider
+     */
+    private static void benchmarkParallelChunking() {
+        double threshold = Double.parseDouble(System.getProperty("threshold", "0.3"));
+        System.out.println("\n=== ПАРАЛЛЕЛЬНОЕ РАЗДЕЛЕНИЕ ПО ЧАСТЯМ ТЕКСТА ===");
+        System.out.println("Потоков: " + java.util.concurrent.ForkJoinPool.commonPool().getParallelism());
+        String text = generateRussianText(8_000_000, 13);
+        SemanticChunker chunker = new SemanticChunker(new HashEmbeddingProvider(), threshold, true, 3);
+
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            List<SemanticChunker.Chunk> expected = chunker.semanticChunking(text, 800);
+            List<SemanticChunker.Chunk> actual = chunker.semanticChunkingParallel(text, 800);
+            boolean same = expected.size() == actual.size();
+            for (int i = 0; same && i < expected.size(); i++) {
+                same = expected.get(i).getPosition() == actual.get(i).getPosition()
+                        && expected.get(i).getText().equals(actual.get(i).getText());
+            }
+
+            double before = measureQuietly(() -> chunkCount(chunker, text, false));
+            double after = measureQuietly(() -> chunkCount(chunker, text, true));
+            System.setOut(out);
+            System.out.println("Чанков: " + actual.size() + ", совпадает с последовательным: " + same);
+            System.out.printf("%-50s %12.1f мс%n", "semanticChunking", before / 1e6);
+            System.out.printf("%-50s %12.1f мс%n", "semanticChunkingParallel", after / 1e6);
+        } catch (Exception e) {
+            System.setOut(out);
+            System.err.println("Ошибка замера: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Память под чанки книги: чанки со ссылкой на исходный текст (смещения) против
+     * чанков с собственной строкой текста (как прежде). Исходный текст в памяти в обоих случаях
+     */
+    private static void benchmarkChunkMemory() {
+        System.out.println("\n=== ПАМЯТЬ ПОД ЧАНКИ ===");
+        String text = generateRussianText(8_000_000, 17);
+        SemanticChunker chunker = new SemanticChunker(new HashEmbeddingProvider(), 0.3, true, 3,
+                null, CompactEmbedding.Storage.INT8);
+
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        List<SemanticChunker.Chunk> chunks;
+        try {
+            chunks = chunker.semanticChunking(text, 800);
+        } catch (Exception e) {
+            System.setOut(out);
+            System.err.println("Ошибка замера: " + e.getMessage());
+            return;
+        }
+        System.setOut(out);
+
+        // Копии чанков двух видов с общими эмбеддингами: разница в объеме - строки текста
+        long before = usedHeap();
+        List<SemanticChunker.Chunk> lazy = new ArrayList<>(chunks.size());
+        for (SemanticChunker.Chunk chunk : chunks) {
+            lazy.add(new SemanticChunker.Chunk(text, (int) chunk.getStartOffset(), (int) chunk.getEndOffset(),
+                    chunk.getCompactEmbedding(), chunk.getPosition()));
+        }
+        long lazyBytes = usedHeap() - before;
+
+        before = usedHeap();
+        List<SemanticChunker.Chunk> eager = new ArrayList<>(chunks.size());
+        for (SemanticChunker.Chunk chunk : chunks) {
+            eager.add(new SemanticChunker.Chunk(chunk.getText(), chunk.getCompactEmbedding(), chunk.getPosition()));
+        }
+        long eagerBytes = usedHeap() - before;
+
+        System.out.println(text.length() + " символов исходного текста, чанков: " + chunks.size());
+        System.out.printf("%-50s %12d КБ%n", "чанки со строкой текста (прежние)", eagerBytes / 1024);
+        System.out.printf("%-50s %12d КБ%n", "чанки со смещениями", lazyBytes / 1024);
+        sink += eager.size() + lazy.size() + chunks.size();
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static int chunkCount(SemanticChunker chunker, String text, boolean parallel) {
+        try {
+            return parallel
+                    ? chunker.semanticChunkingParallel(text, 800).size()
+                    : chunker.semanticChunking(text, 800).size();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Способы группировки на одних и тех же 100 000 предложениях: скользящее окно
+     * против точек разрыва (перцентиль и стандартное отклонение), а также выбор
+     * перцентиля за O(n) против сортировки
+     */
+    private static void benchmarkBreakpoints() {
+        System.out.println("\n=== ТОЧКИ РАЗРЫВА ===");
+        List<String> sentences = new ArrayList<>(SentenceSplitter.split(generateRussianText(8_000_000, 7)));
+        List<String> allSentences = sentences.subList(0, Math.min(100_000, sentences.size()));
+        HashEmbeddingProvider provider = new HashEmbeddingProvider();
+        List<CompactEmbedding> embeddings = new ArrayList<>(allSentences.size());
+        for (String sentence : allSentences) {
+            embeddings.add(CompactEmbedding.of(provider.getEmbedding(sentence), CompactEmbedding.Storage.FLOAT32));
+        }
+        EmbeddingMatrix matrix = EmbeddingMatrix.of(embeddings);
+
+        SemanticChunker sliding = new SemanticChunker(provider, SemanticChunker.GroupingStrategy.SLIDING_WINDOW, 0.3, 3, 0);
+        SemanticChunker percentile = new SemanticChunker(provider, SemanticChunker.GroupingStrategy.PERCENTILE, 0.3, 3, 95);
+        SemanticChunker stdDev = new SemanticChunker(provider, SemanticChunker.GroupingStrategy.STD_DEV, 0.3, 3, 3);
+
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        int slidingChunks = sliding.groupSentencesWithSlidingWindow(allSentences, matrix, 800).size();
+        int percentileChunks = percentile.groupSentencesByBreakpoints(allSentences, matrix, 800).size();
+        int stdDevChunks = stdDev.groupSentencesByBreakpoints(allSentences, matrix, 800).size();
+        double slidingTime = measureQuietly(() -> sliding.groupSentencesWithSlidingWindow(allSentences, matrix, 800).size());
+        double percentileTime = measureQuietly(() -> percentile.groupSentencesByBreakpoints(allSentences, matrix, 800).size());
+        double stdDevTime = measureQuietly(() -> stdDev.groupSentencesByBreakpoints(allSentences, matrix, 800).size());
+        System.setOut(out);
+
+        System.out.printf("%-50s %12.1f мс %8d чанков%n", "скользящее окно 3, порог 0.3", slidingTime / 1e6, slidingChunks);
+        System.out.printf("%-50s %12.1f мс %8d чанков%n", "перцентиль 95", percentileTime / 1e6, percentileChunks);
+        System.out.printf("%-50s %12.1f мс %8d чанков%n", "3 стандартных отклонения", stdDevTime / 1e6, stdDevChunks);
+
+        double[] distances = new double[allSentences.size() - 1];
+        for (int i = 0; i < distances.length; i++) {
+            distances[i] = 1.0 - matrix.cosineSimilarity(i, i + 1);
+        }
+        measure("перцентиль выбором, " + distances.length, 20, 100, () -> SemanticChunker.percentile(distances, 95));
+        measure("перцентиль сортировкой, " + distances.length, 20, 100, () -> {
+            double[] sorted = distances.clone();
+            java.util.Arrays.sort(sorted);
+            return sorted[(int) (0.95 * (sorted.length - 1))];
+        });
+    }
+
+    /**
+     * Время до первого чанка и до последнего: semanticChunking (все эмбеддинги, затем
+     * группирование) против конвейерного semanticChunking с consumer. Сервер эмбеддингов
+     * имитирует SlowEmbeddingProvider; обработка чанка (запись в базу) - пауза в consumer.
+     * Для каждого замера чанкер новый, чтобы эмбеддинги не брались из кэша
+     */
+    private static void benchmarkPipeline() {
+        System.out.println("\n=== КОНВЕЙЕР ЭМБЕДДИНГОВ И ГРУППИРОВАНИЯ ===");
+        String text = generateRussianText(1_000_000, 23);
+
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            long[] whole = new long[2];
+            long[] pipelined = new long[2];
+            int wholeChunks = 0;
+            int pipelinedChunks = 0;
+            List<SemanticChunker.Chunk> expected = null;
+            List<SemanticChunker.Chunk> actual = new ArrayList<>();
+            for (int run = 0; run < 3; run++) {
+                SemanticChunker chunker = new SemanticChunker(new SlowEmbeddingProvider(), 0.3, true, 3);
+                long start = System.nanoTime();
+                expected = chunker.semanticChunking(text, 800);
+                whole[0] = System.nanoTime() - start;
+                expected.forEach(PerformanceBenchmark::writeChunk);
+                whole[1] = System.nanoTime() - start;
+                wholeChunks = expected.size();
+
+                SemanticChunker pipelinedChunker = new SemanticChunker(new SlowEmbeddingProvider(), 0.3, true, 3);
+                long[] first = {0};
+                actual.clear();
+                start = System.nanoTime();
+                long pipelineStart = start;
+                pipelinedChunks = pipelinedChunker.semanticChunking(text, 800, chunk -> {
+                    if (first[0] == 0) {
+                        first[0] = System.nanoTime() - pipelineStart;
+                    }
+                    actual.add(chunk);
+                    writeChunk(chunk);
+                });
+                pipelined[0] = first[0];
+                pipelined[1] = System.nanoTime() - start;
+            }
+            boolean same = expected.size() == actual.size();
+            for (int i = 0; same && i < expected.size(); i++) {
+                same = expected.get(i).getPosition() == actual.get(i).getPosition()
+                        && expected.get(i).getText().equals(actual.get(i).getText());
+            }
+            System.setOut(out);
+
+            System.out.println("Чанков: " + pipelinedChunks + ", совпадает с semanticChunking: " + (same && wholeChunks == pipelinedChunks));
+            System.out.printf("%-50s %15s %15s%n", "", "первый чанк", "все чанки");
+            System.out.printf("%-50s %12.1f мс %12.1f мс%n", "semanticChunking, затем обработка", whole[0] / 1e6, whole[1] / 1e6);
+            System.out.printf("%-50s %12.1f мс %12.1f мс%n", "конвейер (semanticChunking с consumer)", pipelined[0] / 1e6, pipelined[1] / 1e6);
+        } catch (Exception e) {
+            System.setOut(out);
+            System.err.println("Ошибка замера: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Загрузка книги в базу: прежний BookProcessor (весь текст разбивается на чанки, затем
+     * пачки по 50 записываются с паузой 100 мс), то же без паузы пачками rag.db.batch-size
+     * и IngestPipeline, где запись идет одновременно с эмбеддингами
+     */
+    private static void benchmarkIngestPipeline() {
+        System.out.println("\n=== КОНВЕЙЕР ЗАГРУЗКИ В БАЗУ ===");
+        String text = generateRussianText(1_000_000, 29);
+        int batchSize = 500;
+
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            long start = System.nanoTime();
+            List<SemanticChunker.Chunk> chunks = new ArrayList<>();
+            new SemanticChunker(new SlowEmbeddingProvider(), 0.3, true, 3)
+                    .semanticChunking(new java.io.StringReader(text), 800, chunks::add);
+            for (int i = 0; i < chunks.size(); i += 50) {
+                writeBatch(chunks.subList(i, Math.min(i + 50, chunks.size())));
+                if (i + 50 < chunks.size()) {
+                    Thread.sleep(100);
+                }
+            }
+            long sequentialWithPause = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            chunks.clear();
+            new SemanticChunker(new SlowEmbeddingProvider(), 0.3, true, 3)
+                    .semanticChunking(new java.io.StringReader(text), 800, chunks::add);
+            for (int i = 0; i < chunks.size(); i += batchSize) {
+                writeBatch(chunks.subList(i, Math.min(i + batchSize, chunks.size())));
+            }
+            long sequential = System.nanoTime() - start;
+
+            IngestPipeline pipeline = new IngestPipeline(new SemanticChunker(new SlowEmbeddingProvider(), 0.3, true, 3),
+                    batch -> {
+                        writeBatch(batch);
+                        return batch.size();
+                    }, 800, batchSize, 16, 4, 0);
+            start = System.nanoTime();
+            pipeline.run(new java.io.StringReader(text));
+            long pipelined = System.nanoTime() - start;
+            System.setOut(out);
+
+            System.out.println("Чанков: " + chunks.size() + ", в конвейере: " + pipeline.getChunkCount());
+            System.out.printf("%-60s %10.1f мс%n", "чанкинг, затем пачки по 50 с паузой 100 мс (BookProcessor)", sequentialWithPause / 1e6);
+            System.out.printf("%-60s %10.1f мс%n", "чанкинг, затем пачки по " + batchSize, sequential / 1e6);
+            System.out.printf("%-60s %10.1f мс%n", "IngestPipeline, пачки по " + batchSize, pipelined / 1e6);
+            pipeline.getStats().forEach((stage, stats) -> System.out.printf("  %-12s %s%n", stage, stats));
+        } catch (Exception e) {
+            System.setOut(out);
+            System.err.println("Ошибка замера: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Имитация записи пачки чанков в базу: 20 мс на транзакцию и 0.5 мс на чанк
+     */
+    private static void writeBatch(List<SemanticChunker.Chunk> batch) {
+        java.util.concurrent.locks.LockSupport.parkNanos(20_000_000L + 500_000L * batch.size());
+        sink += batch.size();
+    }
+
+    /**
+     * Имитация обработки готового чанка, например записи в базу
+     */
+    private static void writeChunk(SemanticChunker.Chunk chunk) {
+        java.util.concurrent.locks.LockSupport.parkNanos(200_000);
+        sink += chunk.getLength();
+    }
+
+    /**
+     * Сервер эмбеддингов с задержкой: 5 мс на запрос и 40 мкс на предложение,
+     * не больше 4 запросов одновременно. Векторы - от HashEmbeddingProvider
+     */
+    private static final class SlowEmbeddingProvider implements EmbeddingProvider {
+        private final HashEmbeddingProvider vectors = new HashEmbeddingProvider();
+        private final java.util.concurrent.Semaphore slots = new java.util.concurrent.Semaphore(4);
+
+        @Override
+        public float[] getEmbedding(String text) throws Exception {
+            return getEmbeddings(List.of(text)).get(0);
+        }
+
+        @Override
+        public List<float[]> getEmbeddings(List<String> texts) throws Exception {
+            slots.acquire();
+            try {
+                Thread.sleep(5 + texts.size() / 25);
+            } finally {
+                slots.release();
+            }
+            List<float[]> embeddings = new ArrayList<>(texts.size());
+            for (String text : texts) {
+                embeddings.add(vectors.getEmbedding(text));
+            }
+            return embeddings;
+        }
+
+        @Override
+        public String getModelName() {
+            return "slow-hash";
+        }
+    }
+
+    /**
+     * Передача эмбеддинга в PostgreSQL: текст vector ("[0.0123,...]" в UTF-8, как при
+     * setString + ?::vector и getString) против двоичного формата pgvector (PgVector).
+     * Печатаются байты на вектор в протоколе и время кодирования и разбора на стороне клиента
+     */
+    private static void benchmarkPgVectorCodec() {
+        System.out.println("\n=== ПЕРЕДАЧА VECTOR В POSTGRESQL ===");
+        Random random = new Random(42);
+        int count = 1000;
+        List<float[]> vectors = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            float[] vector = new float[384];
+            for (int j = 0; j < vector.length; j++) {
+                vector[j] = (float) (random.nextGaussian() * 0.05);
+            }
+            vectors.add(vector);
+        }
+
+        List<byte[]> textForms = new ArrayList<>(count);
+        List<byte[]> binaryForms = new ArrayList<>(count);
+        long textBytes = 0;
+        for (float[] vector : vectors) {
+            byte[] text = PgVector.format(vector).getBytes(StandardCharsets.UTF_8);
+            PgVector pgVector = new PgVector(vector);
+            byte[] binary = new byte[pgVector.lengthInBytes()];
+            pgVector.toBytes(binary, 0);
+            textForms.add(text);
+            binaryForms.add(binary);
+            textBytes += text.length;
+
+            if (!Arrays.equals(readBinaryVector(binary), vector) || !Arrays.equals(readTextVector(text), vector)) {
+                throw new IllegalStateException("Вектор после передачи не совпадает с исходным");
+            }
+        }
+        System.out.printf("Байт на вектор (384): текст %d, двоичный %d, прежний real[] в COPY %d%n",
+                textBytes / count, binaryForms.get(0).length, 20 + 8 * 384);
+
+        measure("запись, текст", 20_000, 50_000, new Operation() {
+            private int index;
+
+            @Override
+            public double run() {
+                index = (index + 1) % count;
+                return PgVector.format(vectors.get(index)).getBytes(StandardCharsets.UTF_8).length;
+            }
+        });
+        measure("запись, двоичный", 20_000, 50_000, new Operation() {
+            private int index;
+
+            @Override
+            public double run() {
+                index = (index + 1) % count;
+                PgVector pgVector = new PgVector(vectors.get(index));
+                byte[] binary = new byte[pgVector.lengthInBytes()];
+                pgVector.toBytes(binary, 0);
+                return binary.length;
+            }
+        });
+        measure("чтение, текст", 20_000, 50_000, new Operation() {
+            private int index;
+
+            @Override
+            public double run() {
+                index = (index + 1) % count;
+                return readTextVector(textForms.get(index)).length;
+            }
+        });
+        measure("чтение, двоичный", 20_000, 50_000, new Operation() {
+            private int index;
+
+            @Override
+            public double run() {
+                index = (index + 1) % count;
+                return readBinaryVector(binaryForms.get(index)).length;
+            }
+        });
+    }
+
+    private static float[] readTextVector(byte[] text) {
+        try {
+            return PgVector.parse(new String(text, StandardCharsets.UTF_8));
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static float[] readBinaryVector(byte[] binary) {
+        try {
+            PgVector pgVector = new PgVector();
+            pgVector.setByteValue(binary, 0);
+            return pgVector.toArray();
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static double measureQuietly(Operation operation) {
+        for (int i = 0; i < 3; i++) {
+            sink += operation.run();
+        }
+        long start = System.nanoTime();
+        int iterations = 5;
+        for (int i = 0; i < iterations; i++) {
+            sink += operation.run();
+        }
+        return (double) (System.nanoTime() - start) / iterations;
+    }
+
+    /**
+     * Прежняя группировка скользящим окном SemanticChunker (для сравнения): среднее
+     * сходство окна, поиск конца чанка и проверка соседа заново вычисляют косинусы
+     */
+    private static List<SemanticChunker.Chunk> groupWithRecomputation(List<String> sentences,
+                                                                       List<CompactEmbedding> embeddings,
+                                                                       double threshold, int windowSize,
+                                                                       int maxChunkSize) {
+        List<SemanticChunker.Chunk> chunks = new ArrayList<>();
+        int i = 0;
+        while (i < sentences.size()) {
+            int windowEnd = Math.min(i + windowSize, sentences.size());
+            double avgSimilarity = 1.0;
+            if (windowEnd - i > 1) {
+                double total = 0.0;
+                int comparisons = 0;
+                for (int a = i; a < windowEnd; a++) {
+                    for (int b = a + 1; b < windowEnd; b++) {
+                        total += embeddings.get(a).cosineSimilarity(embeddings.get(b));
+                        comparisons++;
+                    }
+                }
+                avgSimilarity = total / comparisons;
+            }
+
+            int chunkEnd = i + 1;
+            if (avgSimilarity >= threshold) {
+                chunkEnd = sentences.size();
+                int currentLength = 0;
+                for (int k = i; k < sentences.size(); k++) {
+                    currentLength += sentences.get(k).length() + (k == i ? 0 : 1);
+                    if (currentLength > maxChunkSize && k > i) {
+                        chunkEnd = k;
+                        break;
+                    }
+                    if (k > i && embeddings.get(k - 1).cosineSimilarity(embeddings.get(k)) < threshold * 0.9) {
+                        chunkEnd = k;
+                        break;
+                    }
+                }
+            } else if (i + 1 < sentences.size()
+                    && embeddings.get(i).cosineSimilarity(embeddings.get(i + 1)) >= threshold) {
+                chunkEnd = i + 2;
+            }
+
+            float[] average = new float[embeddings.get(i).dimensions()];
+            for (int k = i; k < chunkEnd; k++) {
+                embeddings.get(k).addTo(average);
+            }
+            double norm = 0;
+            for (int j = 0; j < average.length; j++) {
+                average[j] /= chunkEnd - i;
+                norm += average[j] * average[j];
+            }
+            norm = Math.sqrt(norm);
+            for (int j = 0; norm > 0 && j < average.length; j++) {
+                average[j] /= norm;
+            }
+            chunks.add(new SemanticChunker.Chunk(String.join(" ", sentences.subList(i, chunkEnd)), average, i));
+            i = chunkEnd;
+        }
+        return chunks;
+    }
+
+    /**
+     * Косинусное сходство: прежний cosineSimilarity (нормы через Math.pow при каждом вызове)
+     * против скалярных произведений нормализованных векторов скалярным и SIMD ядром.
+     * Для SIMD ядра JVM запускается с --add-modules jdk.incubator.vector
+     */
+    private static void benchmarkSimilarityKernels() {
+        System.out.println("\n=== КОСИНУСНОЕ СХОДСТВО ===");
+        SimilarityKernel best = SimilarityKernel.get();
+        SimilarityKernel scalar = SimilarityKernel.scalar();
+        System.out.println("Ядро: " + best.getName());
+
+        for (int dimensions : new int[]{384, 768}) {
+            Random random = new Random(dimensions);
+            int rows = 1024;
+            float[][] vectors = new float[rows][dimensions];
+            float[] matrix = new float[rows * dimensions];
+            for (int r = 0; r < rows; r++) {
+                for (int i = 0; i < dimensions; i++) {
+                    vectors[r][i] = (float) random.nextGaussian();
+                }
+                System.arraycopy(vectors[r], 0, matrix, r * dimensions, dimensions);
+                SimilarityKernel.normalize(matrix, r * dimensions, dimensions);
+            }
+
+            double maxError = 0;
+            for (int r = 0; r + 1 < rows; r++) {
+                double expected = legacyCosineSimilarity(vectors[r], vectors[r + 1]);
+                double actual = best.dot(matrix, r * dimensions, matrix, (r + 1) * dimensions, dimensions);
+                maxError = Math.max(maxError, Math.abs(actual - expected));
+            }
+            System.out.println("Размерность " + dimensions + ", максимальное расхождение с прежним методом: " + maxError);
+
+            int mask = rows - 1;
+            measure("прежний cosineSimilarity, " + dimensions, 200_000, 1_000_000, new Operation() {
+                private int index;
+
+                @Override
+                public double run() {
+                    index = (index + 1) & mask;
+                    return legacyCosineSimilarity(vectors[index], vectors[(index + 1) & mask]);
+                }
+            });
+            for (SimilarityKernel kernel : List.of(scalar, best)) {
+                measure("dot нормализованных, " + kernel.getName() + ", " + dimensions, 1_000_000, 2_000_000,
+                        new Operation() {
+                            private int index;
+
+                            @Override
+                            public double run() {
+                                index = (index + 1) & mask;
+                                return kernel.dot(matrix, index * dimensions, matrix, ((index + 1) & mask) * dimensions,
+                                        dimensions);
+                            }
+                        });
+            }
+            double[] out = new double[rows];
+            for (SimilarityKernel kernel : List.of(scalar, best)) {
+                double elapsed = measure("один-ко-многим (1024 строки), " + kernel.getName() + ", " + dimensions,
+                        200, 1_000, new Operation() {
+                            private int index;
+
+                            @Override
+                            public double run() {
+                                index = (index + 1) & mask;
+                                kernel.dotOneToMany(matrix, index * dimensions, matrix, 0, rows, dimensions, out, 0);
+                                return out[index];
+                            }
+                        });
+                System.out.printf("%-50s %12.1f нс/строку%n", "", elapsed / rows);
+            }
+        }
+    }
+
+    /**
+     * Иерархическая кластеризация: прежняя полная матрица n x n (double) против
+     * HierarchicalClustering с ограничением памяти. На 50 000 предложениях матрица
+     * заняла бы около 20 ГБ, поэтому прежний способ замеряется только на малом объеме
+     */
+    private static void benchmarkClustering() {
+        double threshold = Double.parseDouble(System.getProperty("threshold", "0.3")) * 0.8;
+        System.out.println("\n=== ИЕРАРХИЧЕСКАЯ КЛАСТЕРИЗАЦИЯ ===");
+        System.out.println("Ядро: " + SimilarityKernel.get().getName() + ", потоков: "
+                + java.util.concurrent.ForkJoinPool.commonPool().getParallelism());
+        List<String> sentences = SentenceSplitter.split(generateRussianText(8_000_000, 11));
+        HashEmbeddingProvider provider = new HashEmbeddingProvider();
+        int dimensions = provider.getDimensions();
+
+        for (int n : new int[]{5_000, 50_000}) {
+            int count = Math.min(n, sentences.size());
+            float[] rows = new float[count * dimensions];
+            for (int i = 0; i < count; i++) {
+                System.arraycopy(provider.getEmbedding(sentences.get(i)), 0, rows, i * dimensions, dimensions);
+                SimilarityKernel.normalize(rows, i * dimensions, dimensions);
+            }
+
+            HierarchicalClustering bounded = new HierarchicalClustering(0, 64L * 1024 * 1024);
+            List<List<Integer>> clusters = bounded.cluster(rows, count, dimensions, threshold);
+            System.out.println(count + " предложений: кластеров " + clusters.size());
+            if (count <= 5_000) {
+                boolean same = clustersWithFullMatrix(rows, count, dimensions, threshold).equals(clusters);
+                System.out.println("Совпадает с полной матрицей: " + same);
+                double before = measureQuietly(() -> clustersWithFullMatrix(rows, count, dimensions, threshold).size());
+                System.out.printf("%-50s %12.1f мс %10d МБ%n", "полная матрица, " + count,
+                        before / 1e6, 8L * count * count / (1024 * 1024));
+            }
+            double after = measureQuietly(() -> bounded.cluster(rows, count, dimensions, threshold).size());
+            System.out.printf("%-50s %12.1f мс %10d МБ%n", "HierarchicalClustering, " + count, after / 1e6, 64);
+
+            HierarchicalClustering banded = new HierarchicalClustering(2_000, 8L * 1024 * 1024);
+            double bandedTime = measureQuietly(() -> banded.cluster(rows, count, dimensions, threshold).size());
+            System.out.printf("%-50s %12.1f мс %10d МБ%n", "HierarchicalClustering, полоса 2000, " + count,
+                    bandedTime / 1e6, 8);
+        }
+    }
+
+    /**
+     * Прежняя кластеризация SemanticChunker (для сравнения): полная матрица сходства в один поток
+     */
+    private static List<List<Integer>> clustersWithFullMatrix(float[] rows, int n, int dimensions, double threshold) {
+        SimilarityKernel kernel = SimilarityKernel.get();
+        double[][] similarityMatrix = new double[n][n];
+        for (int i = 0; i < n; i++) {
+            kernel.dotOneToMany(rows, i * dimensions, rows, i + 1, n, dimensions, similarityMatrix[i], i + 1);
+            for (int j = i + 1; j < n; j++) {
+                similarityMatrix[j][i] = similarityMatrix[i][j];
+            }
+        }
+
+        List<List<Integer>> clusters = new ArrayList<>();
+        boolean[] assigned = new boolean[n];
+        for (int i = 0; i < n; i++) {
+            if (!assigned[i]) {
+                List<Integer> cluster = new ArrayList<>();
+                cluster.add(i);
+                assigned[i] = true;
+                for (int j = i + 1; j < n; j++) {
+                    if (!assigned[j] && similarityMatrix[i][j] >= threshold) {
+                        cluster.add(j);
+                        assigned[j] = true;
+                    }
+                }
+                clusters.add(cluster);
+            }
+        }
+        return clusters;
+    }
+
+    /**
+     * Прежняя реализация SemanticChunker.cosineSimilarity (для сравнения)
+     */
+    private static double legacyCosineSimilarity(float[] vectorA, float[] vectorB) {
+        double dotProduct = 0.0;
+        double normA = 0.0;
+        double normB = 0.0;
+        for (int i = 0; i < vectorA.length; i++) {
+            dotProduct += vectorA[i] * vectorB[i];
+            normA += Math.pow(vectorA[i], 2);
+            normB += Math.pow(vectorB[i], 2);
+        }
+        if (normA == 0 || normB == 0) {
+            return 0.0;
+        }
+        return dotProduct / (Math.sqrt(normA) * Math.sqrt(normB));
+    }
+
+    /**
+     * Псевдорусский текст: предложения из словаря с переносами строк, абзацами,
+     * сокращениями и цитатами
+     */
+    static String generateRussianText(int length, long seed) {
+        String[] words = {"книга", "глава", "язык", "программа", "данные", "память", "поток", "объект",
+                "класс", "метод", "значение", "ошибка", "система", "время", "работа", "пример",
+                "т. е.", "и т. д.", "стр. 15", "1.5", "Java", "«цитата»", "(скобка)"};
+        Random random = new Random(seed);
+        StringBuilder text = new StringBuilder(length + 200);
+        while (text.length() < length) {
+            int wordCount = 4 + random.nextInt(16);
+            for (int w = 0; w < wordCount; w++) {
+                String word = words[random.nextInt(words.length)];
+                if (w == 0) {
+                    word = Character.toUpperCase(word.charAt(0)) + word.substring(1);
+                }
+                text.append(word).append(random.nextInt(12) == 0 ? "\n" : " ");
+            }
+            text.setLength(text.length() - 1);
+            text.append(".!?".charAt(random.nextInt(8) == 0 ? 1 + random.nextInt(2) : 0));
+            text.append(random.nextInt(10) == 0 ? "\n\n    " : " ");
+        }
+        return text.toString();
+    }
+
+    // =================== ИЗМЕРЕНИЯ ===================
+
+    /**
+     * Выполняет операцию warmup раз для прогрева JIT, затем iterations раз с замером
+     * времени и выделенной памяти текущего потока; возвращает время на операцию в наносекундах
+     */
+    private static double measure(String name, int warmup, int iterations, Operation operation) {
+        for (int i = 0; i < warmup; i++) {
+            sink += operation.run();
+        }
+
+        long bytesBefore = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink += operation.run();
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocated = allocatedBytes() - bytesBefore;
+
+        System.out.printf("%-50s %12.1f нс/оп %12d байт/оп%n",
+                name, (double) elapsed / iterations, allocated / iterations);
+        return (double) elapsed / iterations;
+    }
+
+    private static long allocatedBytes() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threadBean) {
+            return threadBean.getThreadAllocatedBytes(Thread.currentThread().threadId());
+        }
+        return 0;
+    }
+
+    @FunctionalInterface
+    private interface Operation {
+        double run();
+    }
+}
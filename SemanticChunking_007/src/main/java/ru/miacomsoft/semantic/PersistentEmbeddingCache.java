@@ -0,0 +1,441 @@
+package ru.miacomsoft.semantic;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Постоянный кэш эмбеддингов на диске, переживающий перезапуск JVM.
+ *
+ * Файл отображается в память (memory-mapped) и заполняется только дописыванием.
+ * Ключ записи - первые 128 бит SHA-256 от (модель эмбеддингов, предложение),
+ * в памяти хранится только компактный хэш-индекс ключ -> смещение записи.
+ *
+ * Формат файла:
+ * заголовок: int magic, int version, long writePosition, long recordCount
+ * запись:    long keyHi, long keyLo, int dimensions, float[dimensions]
+ *
+ * При достижении предельного размера файла выполняется компактизация:
+ * самые старые записи отбрасываются, новые сдвигаются в начало файла.
+ *
+ * Файл открывается с исключительной блокировкой (FileLock): индекс и позиция записи
+ * хранятся в памяти, поэтому писать в файл может только один экземпляр. Внутри JVM
+ * fromConfig выдает один общий экземпляр на файл; если файл заблокирован другим
+ * процессом, постоянный кэш не используется
+ */
+public class PersistentEmbeddingCache implements AutoCloseable {
+
+    private static final int MAGIC = 0x454D4243; // "EMBC"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int RECORD_HEADER_SIZE = 20;
+    private static final int MAX_DIMENSIONS = 65536;
+
+    // После компактизации остается не больше этой доли файла
+    private static final double COMPACTION_KEEP_RATIO = 0.5;
+
+    // Общие экземпляры fromConfig по абсолютному пути файла (доступ под синхронизацией на карте)
+    private static final Map<Path, PersistentEmbeddingCache> SHARED = new ConcurrentHashMap<>();
+
+    private final Path path;
+    private final FileChannel channel;
+    private final FileLock fileLock;
+    private final MappedByteBuffer buffer;
+    private final int capacityBytes;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // Открытая адресация: keyHi/keyLo -> смещение записи + 1 (0 - пустая ячейка)
+    private long[] indexKeyHi;
+    private long[] indexKeyLo;
+    private int[] indexOffsets;
+    private int indexSize;
+
+    private int writePosition;
+    // Сколько владельцев у общего экземпляра; файл закрывается последним close
+    private int references = 1;
+    private boolean closed;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong compactions = new AtomicLong();
+
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 недоступен", e);
+        }
+    });
+
+    /**
+     * Открывает (или создает) файл кэша с предельным размером maxBytes
+     */
+    public PersistentEmbeddingCache(Path path, long maxBytes) throws IOException {
+        if (maxBytes <= HEADER_SIZE + RECORD_HEADER_SIZE) {
+            throw new IllegalArgumentException("Слишком маленький размер кэша: " + maxBytes);
+        }
+        this.path = path;
+        // Одно отображение MappedByteBuffer ограничено 2 ГБ
+        this.capacityBytes = (int) Math.min(maxBytes, Integer.MAX_VALUE - 8);
+
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            this.fileLock = channel.tryLock();
+            if (fileLock == null) {
+                throw new IOException("файл кэша используется другим процессом");
+            }
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacityBytes);
+        } catch (IOException | OverlappingFileLockException e) {
+            channel.close();
+            if (e instanceof OverlappingFileLockException) {
+                throw new IOException("файл кэша уже открыт в этой JVM", e);
+            }
+            throw e;
+        }
+        this.buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        resetIndex(1024);
+        load();
+    }
+
+    /**
+     * Кэш по параметрам rag.embedding.cache.file и rag.embedding.cache.max-mb: общий
+     * экземпляр для файла внутри JVM (каждый вызов - отдельный владелец, close закрывает
+     * файл после последнего). Возвращает null, если файл не задан, не может быть открыт
+     * или заблокирован другим процессом
+     */
+    public static PersistentEmbeddingCache fromConfig(ConfigLoader configLoader) {
+        String file = configLoader.getEmbeddingCacheFile();
+        if (file == null || file.isEmpty()) {
+            return null;
+        }
+        Path path = Paths.get(file).toAbsolutePath().normalize();
+        synchronized (SHARED) {
+            PersistentEmbeddingCache shared = SHARED.get(path);
+            if (shared != null) {
+                shared.references++;
+                return shared;
+            }
+            try {
+                PersistentEmbeddingCache cache = new PersistentEmbeddingCache(path,
+                        configLoader.getEmbeddingCacheMaxMb() * 1024L * 1024L);
+                SHARED.put(path, cache);
+                System.out.println("Постоянный кэш эмбеддингов: " + file + " (" + cache.size() + " записей)");
+                return cache;
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Постоянный кэш эмбеддингов " + file + " не используется: " + e.getMessage());
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Возвращает эмбеддинг предложения для модели или null, если его нет в кэше
+     */
+    public float[] get(String model, String sentence) {
+        byte[] key = key(model, sentence);
+        long keyHi = readLong(key, 0);
+        long keyLo = readLong(key, 8);
+
+        lock.readLock().lock();
+        try {
+            int slot = findSlot(keyHi, keyLo);
+            if (indexOffsets[slot] == 0) {
+                misses.incrementAndGet();
+                return null;
+            }
+            hits.incrementAndGet();
+            return readVector(indexOffsets[slot] - 1);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Дописывает эмбеддинг предложения в файл, если его еще нет в кэше
+     */
+    public void put(String model, String sentence, float[] embedding) {
+        int recordSize = RECORD_HEADER_SIZE + embedding.length * Float.BYTES;
+        if (embedding.length == 0 || embedding.length > MAX_DIMENSIONS
+                || HEADER_SIZE + recordSize > capacityBytes) {
+            return;
+        }
+
+        byte[] key = key(model, sentence);
+        long keyHi = readLong(key, 0);
+        long keyLo = readLong(key, 8);
+
+        lock.writeLock().lock();
+        try {
+            if (indexOffsets[findSlot(keyHi, keyLo)] != 0) {
+                return;
+            }
+
+            if (writePosition + recordSize > capacityBytes) {
+                compact(capacityBytes * COMPACTION_KEEP_RATIO - recordSize);
+            }
+
+            int offset = writePosition;
+            buffer.putLong(offset, keyHi);
+            buffer.putLong(offset + 8, keyLo);
+            buffer.putInt(offset + 16, embedding.length);
+            int position = offset + RECORD_HEADER_SIZE;
+            for (float value : embedding) {
+                buffer.putFloat(position, value);
+                position += Float.BYTES;
+            }
+
+            writePosition = position;
+            indexPut(keyHi, keyLo, offset);
+            writeHeader();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Количество записей в кэше
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return indexSize;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Удаляет все записи
+     */
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            writePosition = HEADER_SIZE;
+            resetIndex(1024);
+            writeHeader();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Статистика кэша
+     */
+    public Map<String, Object> getStats() {
+        lock.readLock().lock();
+        try {
+            Map<String, Object> stats = new HashMap<>();
+            stats.put("file", path.toString());
+            stats.put("entries", indexSize);
+            stats.put("usedBytes", writePosition);
+            stats.put("maxBytes", capacityBytes);
+            stats.put("hits", hits.get());
+            stats.put("misses", misses.get());
+            stats.put("compactions", compactions.get());
+            return stats;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Сбрасывает отображенные страницы на диск и закрывает файл (снимая блокировку).
+     * Общий экземпляр fromConfig закрывается, когда его закрыли все владельцы
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (SHARED) {
+            if (closed || --references > 0) {
+                return;
+            }
+            closed = true;
+            SHARED.remove(path, this);
+        }
+        lock.writeLock().lock();
+        try {
+            buffer.force();
+            fileLock.release();
+            channel.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Читает заголовок и строит индекс по существующим записям.
+     * Поврежденный хвост файла (например, после аварийного завершения) отбрасывается
+     */
+    private void load() {
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            writePosition = HEADER_SIZE;
+            writeHeader();
+            return;
+        }
+
+        long storedPosition = buffer.getLong(8);
+        int end = (int) Math.max(HEADER_SIZE, Math.min(storedPosition, capacityBytes));
+        int offset = HEADER_SIZE;
+
+        while (offset + RECORD_HEADER_SIZE <= end) {
+            int dimensions = buffer.getInt(offset + 16);
+            int recordSize = RECORD_HEADER_SIZE + dimensions * Float.BYTES;
+            if (dimensions <= 0 || dimensions > MAX_DIMENSIONS || offset + recordSize > end) {
+                break;
+            }
+            long keyHi = buffer.getLong(offset);
+            long keyLo = buffer.getLong(offset + 8);
+            int slot = findSlot(keyHi, keyLo);
+            if (indexOffsets[slot] == 0) {
+                indexPut(keyHi, keyLo, offset);
+            }
+            offset += recordSize;
+        }
+
+        writePosition = offset;
+        if (writePosition != storedPosition) {
+            writeHeader();
+        }
+    }
+
+    /**
+     * Компактизация: оставляет самые новые записи общим объемом не более keepBytes
+     * и сдвигает их в начало файла. Выполняется под блокировкой записи
+     */
+    private void compact(double keepBytes) {
+        // Находим первую запись, начиная с которой хвост файла укладывается в keepBytes
+        int cut = HEADER_SIZE;
+        while (cut < writePosition && writePosition - cut > keepBytes) {
+            cut += RECORD_HEADER_SIZE + buffer.getInt(cut + 16) * Float.BYTES;
+        }
+        int keptBytes = writePosition - cut;
+
+        // Сначала помечаем кэш пустым: при сбое во время сдвига файл останется согласованным
+        writePosition = HEADER_SIZE;
+        writeHeader();
+        buffer.force();
+
+        // Копируем вперед блоками: источник всегда правее приемника, перекрытие безопасно
+        byte[] block = new byte[64 * 1024];
+        int copied = 0;
+        while (copied < keptBytes) {
+            int length = Math.min(block.length, keptBytes - copied);
+            buffer.get(cut + copied, block, 0, length);
+            buffer.put(HEADER_SIZE + copied, block, 0, length);
+            copied += length;
+        }
+
+        writePosition = HEADER_SIZE + keptBytes;
+        writeHeader();
+        rebuildIndex();
+        compactions.incrementAndGet();
+
+        System.out.println("Компактизация кэша эмбеддингов: оставлено " + indexSize + " записей");
+    }
+
+    private void rebuildIndex() {
+        resetIndex(Math.max(1024, indexSize * 2));
+        int offset = HEADER_SIZE;
+        while (offset < writePosition) {
+            indexPut(buffer.getLong(offset), buffer.getLong(offset + 8), offset);
+            offset += RECORD_HEADER_SIZE + buffer.getInt(offset + 16) * Float.BYTES;
+        }
+    }
+
+    private void writeHeader() {
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putLong(8, writePosition);
+        buffer.putLong(16, indexSize);
+    }
+
+    private float[] readVector(int offset) {
+        int dimensions = buffer.getInt(offset + 16);
+        float[] vector = new float[dimensions];
+        int position = offset + RECORD_HEADER_SIZE;
+        for (int i = 0; i < dimensions; i++) {
+            vector[i] = buffer.getFloat(position);
+            position += Float.BYTES;
+        }
+        return vector;
+    }
+
+    // =================== ХЭШ-ИНДЕКС ===================
+
+    private void resetIndex(int capacity) {
+        int size = Integer.highestOneBit(Math.max(16, capacity - 1)) << 1;
+        indexKeyHi = new long[size];
+        indexKeyLo = new long[size];
+        indexOffsets = new int[size];
+        indexSize = 0;
+    }
+
+    private int findSlot(long keyHi, long keyLo) {
+        int mask = indexOffsets.length - 1;
+        int slot = (int) (keyHi ^ (keyHi >>> 32)) & mask;
+        while (indexOffsets[slot] != 0
+                && (indexKeyHi[slot] != keyHi || indexKeyLo[slot] != keyLo)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void indexPut(long keyHi, long keyLo, int offset) {
+        // Коэффициент заполнения не выше 0.5
+        if ((indexSize + 1) * 2 > indexOffsets.length) {
+            long[] oldHi = indexKeyHi;
+            long[] oldLo = indexKeyLo;
+            int[] oldOffsets = indexOffsets;
+            resetIndex(oldOffsets.length * 2);
+            for (int i = 0; i < oldOffsets.length; i++) {
+                if (oldOffsets[i] != 0) {
+                    indexPut(oldHi[i], oldLo[i], oldOffsets[i] - 1);
+                }
+            }
+        }
+
+        int slot = findSlot(keyHi, keyLo);
+        if (indexOffsets[slot] == 0) {
+            indexSize++;
+        }
+        indexKeyHi[slot] = keyHi;
+        indexKeyLo[slot] = keyLo;
+        indexOffsets[slot] = offset + 1;
+    }
+
+    private static byte[] key(String model, String sentence) {
+        MessageDigest digest = SHA256.get();
+        digest.reset();
+        digest.update(model.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        return digest.digest(sentence.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static long readLong(byte[] bytes, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (bytes[offset + i] & 0xFF);
+        }
+        return value;
+    }
+}
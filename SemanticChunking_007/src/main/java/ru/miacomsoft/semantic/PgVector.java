@@ -0,0 +1,189 @@
+package ru.miacomsoft.semantic;
+
+import org.postgresql.PGConnection;
+import org.postgresql.util.PGBinaryObject;
+import org.postgresql.util.PGobject;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+/**
+ * Значение типа vector (pgvector) для pgJDBC.
+ *
+ * После register соединение передает и читает vector в двоичном формате pgvector:
+ * int16 размерность, int16 (не используется, 0), затем размерность значений float4,
+ * все в сетевом порядке байт. Вектор из 384 чисел занимает 1540 байт вместо примерно
+ * 4 КБ текста "[0.0123, ...]", и не нужны форматирование и разбор чисел.
+ * Если двоичная передача недоступна (тип не найден, preferQueryMode=simple,
+ * запрос еще не подготовлен на сервере), используется текстовый формат
+ */
+public class PgVector extends PGobject implements PGBinaryObject {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final String TYPE = "vector";
+    private static final int HEADER_BYTES = 4;
+
+    private float[] vector;
+
+    public PgVector() {
+        setType(TYPE);
+    }
+
+    public PgVector(float[] vector) {
+        this();
+        this.vector = vector;
+    }
+
+    /**
+     * Регистрирует тип vector в соединении pgJDBC (включает двоичную передачу).
+     * Расширение vector должно быть уже создано
+     */
+    public static void register(Connection conn) throws SQLException {
+        conn.unwrap(PGConnection.class).addDataType(TYPE, PgVector.class);
+    }
+
+    /**
+     * Массив значений вектора из результата getObject (PgVector или текст vector)
+     */
+    public static float[] toArray(Object value) throws SQLException {
+        if (value == null) {
+            return new float[0];
+        }
+        if (value instanceof PgVector pgVector) {
+            return pgVector.toArray();
+        }
+        return parse(value.toString());
+    }
+
+    public float[] toArray() {
+        return vector == null ? new float[0] : vector;
+    }
+
+    @Override
+    public void setValue(String value) throws SQLException {
+        vector = value == null ? null : parse(value);
+    }
+
+    @Override
+    public String getValue() {
+        return vector == null ? null : format(vector);
+    }
+
+    /**
+     * Без форматирования текста (PGobject.isNull вызывает getValue)
+     */
+    @Override
+    public boolean isNull() {
+        return vector == null;
+    }
+
+    @Override
+    public void setByteValue(byte[] value, int offset) throws SQLException {
+        int dim = ((value[offset] & 0xFF) << 8) | (value[offset + 1] & 0xFF);
+        if (value.length - offset < HEADER_BYTES + 4 * dim) {
+            throw new SQLException("Неверный двоичный формат vector: размерность " + dim
+                    + ", байт " + (value.length - offset));
+        }
+        float[] result = new float[dim];
+        int position = offset + HEADER_BYTES;
+        for (int i = 0; i < dim; i++, position += 4) {
+            result[i] = Float.intBitsToFloat(((value[position] & 0xFF) << 24)
+                    | ((value[position + 1] & 0xFF) << 16)
+                    | ((value[position + 2] & 0xFF) << 8)
+                    | (value[position + 3] & 0xFF));
+        }
+        vector = result;
+    }
+
+    @Override
+    public int lengthInBytes() {
+        return vector == null ? 0 : HEADER_BYTES + 4 * vector.length;
+    }
+
+    @Override
+    public void toBytes(byte[] bytes, int offset) {
+        write(vector, bytes, offset);
+    }
+
+    /**
+     * Записывает вектор в двоичном формате pgvector (lengthInBytes байт)
+     */
+    static void write(float[] vector, byte[] bytes, int offset) {
+        int dim = vector.length;
+        bytes[offset] = (byte) (dim >>> 8);
+        bytes[offset + 1] = (byte) dim;
+        bytes[offset + 2] = 0;
+        bytes[offset + 3] = 0;
+        int position = offset + HEADER_BYTES;
+        for (float value : vector) {
+            int bits = Float.floatToIntBits(value);
+            bytes[position++] = (byte) (bits >>> 24);
+            bytes[position++] = (byte) (bits >>> 16);
+            bytes[position++] = (byte) (bits >>> 8);
+            bytes[position++] = (byte) bits;
+        }
+    }
+
+    /**
+     * Текстовый формат vector: [0.1,0.2,...]
+     */
+    static String format(float[] vector) {
+        StringBuilder sb = new StringBuilder(vector.length * 12 + 2);
+        sb.append('[');
+        for (int i = 0; i < vector.length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(vector[i]);
+        }
+        return sb.append(']').toString();
+    }
+
+    static float[] parse(String value) throws SQLException {
+        String body = value.trim();
+        if (body.startsWith("[")) {
+            body = body.substring(1);
+        }
+        if (body.endsWith("]")) {
+            body = body.substring(0, body.length() - 1);
+        }
+        if (body.isBlank()) {
+            return new float[0];
+        }
+        String[] parts = body.split(",");
+        float[] result = new float[parts.length];
+        try {
+            for (int i = 0; i < parts.length; i++) {
+                result[i] = Float.parseFloat(parts[i].trim());
+            }
+        } catch (NumberFormatException e) {
+            throw new SQLException("Неверный текстовый формат vector: " + e.getMessage(), e);
+        }
+        return result;
+    }
+
+    @Override
+    public PgVector clone() throws CloneNotSupportedException {
+        PgVector copy = (PgVector) super.clone();
+        copy.vector = vector == null ? null : vector.clone();
+        return copy;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof PgVector other && Arrays.equals(vector, other.vector);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(vector);
+    }
+
+    @Override
+    public String toString() {
+        String value = getValue();
+        return value == null ? "null" : value;
+    }
+}
@@ -0,0 +1,27 @@
+package ru.miacomsoft.semantic;
+
+/**
+ * Скалярное вычисление скалярных произведений: произведения float суммируются
+ * в double по порядку компонент, как в SemanticChunker.cosineSimilarity
+ */
+final class ScalarSimilarityKernel implements SimilarityKernel {
+
+    static final ScalarSimilarityKernel INSTANCE = new ScalarSimilarityKernel();
+
+    private ScalarSimilarityKernel() {
+    }
+
+    @Override
+    public double dot(float[] a, int aOffset, float[] b, int bOffset, int dimensions) {
+        double dotProduct = 0.0;
+        for (int i = 0; i < dimensions; i++) {
+            dotProduct += a[aOffset + i] * b[bOffset + i];
+        }
+        return dotProduct;
+    }
+
+    @Override
+    public String getName() {
+        return "scalar";
+    }
+}
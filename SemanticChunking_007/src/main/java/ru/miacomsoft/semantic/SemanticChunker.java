@@ -1,15 +1,19 @@
 package ru.miacomsoft.semantic;
 
-import org.json.JSONArray;
-import org.json.JSONObject;
-
-import java.net.URI;
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
 
 /**
  Использование:
@@ -24,32 +28,61 @@ import java.util.regex.Pattern;
  true,    // useSlidingWindow - использовать скользящее окно
  5        // windowSize - размер окна 5 предложений
  );
+
+ // Без сервера модели (детерминированные эмбеддинги для замеров и тестов)
+ SemanticChunker chunker3 = new SemanticChunker(new HashEmbeddingProvider(), 0.65, true, 3);
+
+ // Разрывы по 95-му перцентилю расстояний соседних предложений (самый быстрый режим)
+ SemanticChunker chunker4 = new SemanticChunker(new HashEmbeddingProvider(),
+ SemanticChunker.GroupingStrategy.PERCENTILE, 0.65, 3, 95);
+
+ // Потоковая обработка большого файла: чанки выдаются по мере чтения
+ chunker1.semanticChunking(Path.of("book.txt"), 800, chunk -> save(chunk));
+
+ // Большой текст целиком в памяти: разделение и группировка на всех ядрах
+ List<SemanticChunker.Chunk> chunks = chunker1.semanticChunkingParallel(bookText, 800);
+
+ Источник эмбеддингов задается параметром rag.embedding.provider (ollama | hash).
+ Способ группировки - rag.chunking.strategy (sliding-window | hierarchical | percentile | std-dev),
+ порог разрыва для percentile и std-dev - rag.chunking.breakpoint-amount.
+ Формат хранения эмбеддингов в кэше и чанках - rag.embedding.storage (float32 | float16 | int8).
+ Режим без скользящего окна кластеризует предложения без полной матрицы сходства,
+ память под промежуточные данные ограничена rag.clustering.memory-mb.
+ Если задан rag.embedding.cache.file, эмбеддинги дополнительно сохраняются на диск
+ и переживают перезапуск; по окончании работы чанкер следует закрыть (close)
  */
-public class SemanticChunker {
+public class SemanticChunker implements AutoCloseable {
 
-    private final HttpClient httpClient;
-    private final String ollamaBaseUrl;
-    private final String embeddingModel;
+    private final EmbeddingProvider embeddingProvider;
     private final double similarityThreshold;
-    private final int batchSize;
-    private final boolean useSlidingWindow;
+    private final GroupingStrategy groupingStrategy;
+    // Перцентиль (PERCENTILE) или количество стандартных отклонений (STD_DEV) для точек разрыва
+    private final double breakpointAmount;
     private final int windowSize;
-    private final Cache<String, float[]> embeddingCache;
+    private final CompactEmbedding.Storage embeddingStorage;
+    private final StripedLruCache<String, CompactEmbedding> embeddingCache;
+    private final PersistentEmbeddingCache persistentCache;
+    private final HierarchicalClustering hierarchicalClustering;
+    // Запросы эмбеддингов, выполняемые сейчас (ключ - предложение; модель у чанкера одна)
+    private final ConcurrentHashMap<String, CompletableFuture<CompactEmbedding>> inFlightEmbeddings = new ConcurrentHashMap<>();
 
-    // Кэш для хранения эмбеддингов (LRU кэш с ограниченным размером)
-    private static class Cache<K, V> extends LinkedHashMap<K, V> {
-        private final int maxSize;
+    // Емкость кэша эмбеддингов в памяти по умолчанию (количество предложений)
+    private static final int DEFAULT_CACHE_MAX_ENTRIES = 1000;
 
-        public Cache(int maxSize) {
-            super(maxSize * 3/4, 0.75f, true);
-            this.maxSize = maxSize;
-        }
+    // Сколько своих предложений запрашивать за раз перед публикацией результатов ожидающим
+    private static final int IN_FLIGHT_SLICE_SIZE = 256;
 
-        @Override
-        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
-            return size() > maxSize;
-        }
-    }
+    // Потоковый режим: размер буфера чтения (символов) и пачки предложений на эмбеддинг
+    static final int STREAM_BUFFER_SIZE = 8192;
+    static final int STREAM_EMBEDDING_BATCH = 256;
+
+    // Конвейерный режим: первая пачка на эмбеддинг (следующие вдвое больше, до STREAM_EMBEDDING_BATCH)
+    // и сколько пачек может ожидать эмбеддинги одновременно
+    static final int PIPELINE_FIRST_BATCH = 16;
+    private static final int PIPELINE_MAX_IN_FLIGHT = 4;
+
+    // Параллельный режим: наименьший размер части текста (символов)
+    private static final int PARALLEL_SEGMENT_SIZE = 64 * 1024;
 
     /**
      * Конструктор с ConfigLoader
@@ -62,28 +95,28 @@ public class SemanticChunker {
      * Расширенный конструктор с ConfigLoader
      */
     public SemanticChunker(ConfigLoader configLoader, int batchSize, boolean useSlidingWindow, int windowSize) {
-        this.httpClient = HttpClient.newHttpClient();
-        this.ollamaBaseUrl = configLoader.getOllamaUrl();
-        this.embeddingModel = configLoader.getProperties().getProperty("rag.embedding.model", "all-minilm:22m");
-        this.similarityThreshold = configLoader.getSimilarityThreshold(); // Используем метод ConfigLoader
-        this.batchSize = batchSize;
-        this.useSlidingWindow = useSlidingWindow;
-        this.windowSize = windowSize;
-        this.embeddingCache = new Cache<>(1000); // Кэш на 1000 предложений
+        this(EmbeddingProvider.fromConfig(configLoader, batchSize), configLoader.getSimilarityThreshold(),
+                configuredStrategy(configLoader, useSlidingWindow), windowSize,
+                configLoader.getChunkingBreakpointAmount(configuredStrategy(configLoader, useSlidingWindow)),
+                PersistentEmbeddingCache.fromConfig(configLoader), createEmbeddingCache(configLoader),
+                configLoader.getEmbeddingStorage(), HierarchicalClustering.fromConfig(configLoader));
+    }
+
+    /**
+     * Конструктор с ConfigLoader и заданным источником эмбеддингов
+     */
+    public SemanticChunker(ConfigLoader configLoader, EmbeddingProvider embeddingProvider) {
+        this(embeddingProvider, configLoader.getSimilarityThreshold(), configuredStrategy(configLoader, true), 3,
+                configLoader.getChunkingBreakpointAmount(configuredStrategy(configLoader, true)),
+                PersistentEmbeddingCache.fromConfig(configLoader), createEmbeddingCache(configLoader),
+                configLoader.getEmbeddingStorage(), HierarchicalClustering.fromConfig(configLoader));
     }
 
     /**
      * Конструктор для обратной совместимости
      */
     public SemanticChunker(String ollamaBaseUrl, String embeddingModel, double similarityThreshold) {
-        this.httpClient = HttpClient.newHttpClient();
-        this.ollamaBaseUrl = ollamaBaseUrl;
-        this.embeddingModel = embeddingModel;
-        this.similarityThreshold = similarityThreshold;
-        this.batchSize = 10;
-        this.useSlidingWindow = true; // Включили по умолчанию
-        this.windowSize = 3;
-        this.embeddingCache = new Cache<>(1000);
+        this(ollamaBaseUrl, embeddingModel, similarityThreshold, 10, true, 3);
     }
 
     /**
@@ -91,14 +124,102 @@ public class SemanticChunker {
      */
     public SemanticChunker(String ollamaBaseUrl, String embeddingModel, double similarityThreshold,
                            int batchSize, boolean useSlidingWindow, int windowSize) {
-        this.httpClient = HttpClient.newHttpClient();
-        this.ollamaBaseUrl = ollamaBaseUrl;
-        this.embeddingModel = embeddingModel;
+        this(ollamaBaseUrl, embeddingModel, similarityThreshold, batchSize, useSlidingWindow, windowSize,
+                OllamaEmbeddingProvider.DEFAULT_MAX_CONCURRENT_REQUESTS);
+    }
+
+    /**
+     * Конструктор с явным ограничением количества одновременных запросов к Ollama
+     */
+    public SemanticChunker(String ollamaBaseUrl, String embeddingModel, double similarityThreshold,
+                           int batchSize, boolean useSlidingWindow, int windowSize,
+                           int maxConcurrentRequests) {
+        this(new OllamaEmbeddingProvider(ollamaBaseUrl, embeddingModel, batchSize, maxConcurrentRequests, true),
+                similarityThreshold, useSlidingWindow, windowSize);
+    }
+
+    /**
+     * Основной конструктор с произвольным источником эмбеддингов
+     */
+    public SemanticChunker(EmbeddingProvider embeddingProvider, double similarityThreshold,
+                           boolean useSlidingWindow, int windowSize) {
+        this(embeddingProvider, similarityThreshold, useSlidingWindow, windowSize, null);
+    }
+
+    /**
+     * Конструктор с постоянным кэшем эмбеддингов на диске (persistentCache может быть null)
+     */
+    public SemanticChunker(EmbeddingProvider embeddingProvider, double similarityThreshold,
+                           boolean useSlidingWindow, int windowSize,
+                           PersistentEmbeddingCache persistentCache) {
+        this(embeddingProvider, similarityThreshold, useSlidingWindow, windowSize, persistentCache,
+                CompactEmbedding.Storage.FLOAT32);
+    }
+
+    /**
+     * Конструктор с постоянным кэшем и форматом хранения эмбеддингов в памяти
+     */
+    public SemanticChunker(EmbeddingProvider embeddingProvider, double similarityThreshold,
+                           boolean useSlidingWindow, int windowSize,
+                           PersistentEmbeddingCache persistentCache,
+                           CompactEmbedding.Storage embeddingStorage) {
+        this(embeddingProvider, similarityThreshold, GroupingStrategy.of(useSlidingWindow), windowSize, 0,
+                persistentCache, StripedLruCache.withMaxEntries(DEFAULT_CACHE_MAX_ENTRIES), embeddingStorage,
+                new HierarchicalClustering());
+    }
+
+    /**
+     * Конструктор с явным способом группировки; breakpointAmount - перцентиль (PERCENTILE)
+     * или количество стандартных отклонений (STD_DEV), для остальных способов не используется
+     */
+    public SemanticChunker(EmbeddingProvider embeddingProvider, GroupingStrategy groupingStrategy,
+                           double similarityThreshold, int windowSize, double breakpointAmount) {
+        this(embeddingProvider, similarityThreshold, groupingStrategy, windowSize, breakpointAmount,
+                null, StripedLruCache.withMaxEntries(DEFAULT_CACHE_MAX_ENTRIES), CompactEmbedding.Storage.FLOAT32,
+                new HierarchicalClustering());
+    }
+
+    private SemanticChunker(EmbeddingProvider embeddingProvider, double similarityThreshold,
+                            GroupingStrategy groupingStrategy, int windowSize, double breakpointAmount,
+                            PersistentEmbeddingCache persistentCache,
+                            StripedLruCache<String, CompactEmbedding> embeddingCache,
+                            CompactEmbedding.Storage embeddingStorage,
+                            HierarchicalClustering hierarchicalClustering) {
+        this.embeddingStorage = embeddingStorage;
+        this.hierarchicalClustering = hierarchicalClustering;
+        this.persistentCache = persistentCache;
+        this.embeddingProvider = embeddingProvider;
         this.similarityThreshold = similarityThreshold;
-        this.batchSize = batchSize;
-        this.useSlidingWindow = useSlidingWindow;
+        this.groupingStrategy = groupingStrategy;
+        this.breakpointAmount = breakpointAmount;
         this.windowSize = windowSize;
-        this.embeddingCache = new Cache<>(1000);
+        this.embeddingCache = embeddingCache;
+    }
+
+    /**
+     * Способ группировки из rag.chunking.strategy; если он не задан - по флагу useSlidingWindow
+     */
+    private static GroupingStrategy configuredStrategy(ConfigLoader configLoader, boolean useSlidingWindow) {
+        GroupingStrategy strategy = configLoader.getChunkingStrategy();
+        return strategy != null ? strategy : GroupingStrategy.of(useSlidingWindow);
+    }
+
+    /**
+     * Создает кэш эмбеддингов в памяти по параметрам rag.embedding.cache.max-entries / max-bytes
+     */
+    private static StripedLruCache<String, CompactEmbedding> createEmbeddingCache(ConfigLoader configLoader) {
+        long maxBytes = configLoader.getEmbeddingCacheMaxBytes();
+        if (maxBytes > 0) {
+            return StripedLruCache.withMaxBytes(maxBytes, SemanticChunker::estimateEntryBytes);
+        }
+        return StripedLruCache.withMaxEntries(configLoader.getEmbeddingCacheMaxEntries());
+    }
+
+    /**
+     * Приблизительный объем записи кэша в куче: узел LinkedHashMap, строка-ключ и эмбеддинг
+     */
+    private static long estimateEntryBytes(String sentence, CompactEmbedding embedding) {
+        return 64 + 40 + 2L * sentence.length() + embedding.estimateBytes();
     }
 
     /**
@@ -107,202 +228,354 @@ public class SemanticChunker {
      */
     public List<Chunk> semanticChunking(String text, int maxChunkSize) throws Exception {
         // 1. Разбиваем текст на предложения (улучшенная версия)
-        List<String> sentences = splitIntoSentencesAdvanced(text);
+        SourceSentences sentences = splitIntoSentencesAdvanced(text);
 
-        if (sentences.isEmpty()) {
+        if (sentences.size() == 0) {
             return new ArrayList<>();
         }
 
         System.out.println("Разбито на " + sentences.size() + " предложений");
 
         // 2. Получаем эмбеддинги для всех предложений (пакетная обработка с кэшированием)
-        List<float[]> embeddings = getEmbeddingsBatchWithCache(sentences);
+        EmbeddingMatrix embeddings = EmbeddingMatrix.of(getEmbeddingsBatchWithCache(sentences.list()));
 
         // 3. Выполняем семантическое группирование (с улучшенным алгоритмом)
-        return useSlidingWindow
-                ? groupSentencesWithSlidingWindow(sentences, embeddings, maxChunkSize)
-                : groupSentencesWithHierarchicalClustering(sentences, embeddings, maxChunkSize);
+        return groupSentences(sentences, embeddings, maxChunkSize);
     }
 
     /**
-     * Улучшенное разделение текста на предложения
-     * Обрабатывает сокращения, инициалы, цифры с точками и т.д.
+     * Параллельное семантическое разделение большого текста. Текст режется на части
+     * по пустым строкам между предложениями (SentenceSplitter.findParagraphBoundary),
+     * части делятся на предложения и группируются скользящим окном параллельно
+     * (fork/join), а на стыках частей границы чанков согласуются. Результат и позиции
+     * чанков (номера первых предложений во всем тексте) совпадают с semanticChunking(String, int).
+     * Иерархическая кластеризация и точки разрыва зависят от всего текста и выполняются целиком
      */
-    private List<String> splitIntoSentencesAdvanced(String text) {
-        List<String> sentences = new ArrayList<>();
-        if (text == null || text.trim().isEmpty()) {
-            return sentences;
+    public List<Chunk> semanticChunkingParallel(String text, int maxChunkSize) throws Exception {
+        if (text == null) {
+            return new ArrayList<>();
         }
 
-        // Убираем лишние пробелы и переносы строк
-        text = text.replaceAll("\\s+", " ").trim();
+        // 1. Режем текст на части и делим их на предложения параллельно
+        List<int[]> segments = splitIntoSegments(text);
+        List<SourceSentences> segmentSentences = segments.parallelStream()
+                .map(segment -> {
+                    SourceSentences part = new SourceSentences(text);
+                    String segmentText = text.substring(segment[0], segment[1]);
+                    SentenceSplitter.scan(segmentText, (start, end) -> part.add(
+                            SentenceSplitter.normalize(segmentText, start, end), segment[0] + start, segment[0] + end));
+                    return part;
+                })
+                .toList();
+
+        SourceSentences sentences = new SourceSentences(text);
+        int[] segmentStarts = new int[segments.size()];
+        for (int k = 0; k < segmentSentences.size(); k++) {
+            segmentStarts[k] = sentences.size();
+            sentences.addAll(segmentSentences.get(k));
+        }
+
+        if (sentences.size() == 0) {
+            return new ArrayList<>();
+        }
+
+        System.out.println("Разбито на " + sentences.size() + " предложений (частей текста: " + segments.size() + ")");
+
+        // 2. Эмбеддинги для всех предложений: запросы к серверу и так выполняются параллельно
+        EmbeddingMatrix embeddings = EmbeddingMatrix.of(getEmbeddingsBatchWithCache(sentences.list()));
 
-        // Паттерн для разделения предложений, учитывающий сокращения
-        // Более простой и надежный паттерн
-        String regex = "(?<=[.!?])\\s+(?=[А-ЯA-Z\"«(])";
+        // 3. Группирование по частям
+        return groupingStrategy == GroupingStrategy.SLIDING_WINDOW
+                ? groupSentencesWithSlidingWindow(sentences, embeddings, segmentStarts, maxChunkSize)
+                : groupSentences(sentences, embeddings, maxChunkSize);
+    }
 
-        Pattern pattern = Pattern.compile(regex);
-        Matcher matcher = pattern.matcher(text);
+    /**
+     * Группирует предложения выбранным способом
+     */
+    private List<Chunk> groupSentences(SourceSentences sentences, EmbeddingMatrix embeddings, int maxChunkSize) {
+        return switch (groupingStrategy) {
+            case SLIDING_WINDOW -> groupSentencesWithSlidingWindow(sentences, embeddings, maxChunkSize);
+            case HIERARCHICAL -> groupSentencesWithHierarchicalClustering(sentences.list(), embeddings, maxChunkSize);
+            case PERCENTILE, STD_DEV -> groupSentencesByBreakpoints(sentences, embeddings, maxChunkSize);
+        };
+    }
+
+    /**
+     * Границы частей текста [start, end) не короче PARALLEL_SEGMENT_SIZE символов
+     * (кроме последней), разрезанных по границам абзацев
+     */
+    private static List<int[]> splitIntoSegments(String text) {
+        List<int[]> segments = new ArrayList<>();
+        int start = 0;
+        while (start < text.length()) {
+            int boundary = start + PARALLEL_SEGMENT_SIZE < text.length()
+                    ? SentenceSplitter.findParagraphBoundary(text, start + PARALLEL_SEGMENT_SIZE)
+                    : -1;
+            int end = boundary < 0 ? text.length() : boundary;
+            segments.add(new int[]{start, end});
+            start = end;
+        }
+        return segments;
+    }
+
+    /**
+     * Потоковое семантическое разделение файла (UTF-8), см. semanticChunking(Reader, int, Consumer)
+     */
+    public int semanticChunking(Path path, int maxChunkSize, Consumer<Chunk> consumer) throws Exception {
+        try (Reader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            return semanticChunking(reader, maxChunkSize, consumer);
+        }
+    }
 
-        int lastEnd = 0;
-        while (matcher.find()) {
-            String sentence = text.substring(lastEnd, matcher.start()).trim();
-            if (!sentence.isEmpty()) {
-                sentences.add(sentence);
+    /**
+     * Потоковое семантическое разделение текста из Reader.
+     * Чанки передаются в consumer по мере чтения и совпадают с результатом
+     * semanticChunking(String, int). В памяти хранятся только предложения,
+     * от которых еще зависит граница текущего чанка (окно и до maxChunkSize символов),
+     * и пачки предложений, ожидающие эмбеддинги (не больше PIPELINE_MAX_IN_FLIGHT).
+     * Чтение и группирование идут одновременно с запросами эмбеддингов. Возвращает количество чанков
+     */
+    public int semanticChunking(Reader reader, int maxChunkSize, Consumer<Chunk> consumer) throws Exception {
+        if (groupingStrategy != GroupingStrategy.SLIDING_WINDOW) {
+            // Кластеры и порог точек разрыва зависят от всех предложений - нужен весь текст
+            System.out.println("Группировка " + groupingStrategy + " не поддерживает потоковый режим, текст читается целиком");
+            StringBuilder text = new StringBuilder();
+            char[] buffer = new char[STREAM_BUFFER_SIZE];
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                text.append(buffer, 0, read);
             }
-            lastEnd = matcher.end();
+            List<Chunk> chunks = semanticChunking(text.toString(), maxChunkSize);
+            chunks.forEach(consumer);
+            return chunks.size();
         }
+        // Исходный текст не хранится: текст чанков собирается из предложений, смещения - в потоке
+        return pipelinedChunking(reader, null, maxChunkSize, consumer);
+    }
 
-        // Добавляем последнее предложение
-        String lastSentence = text.substring(lastEnd).trim();
-        if (!lastSentence.isEmpty()) {
-            sentences.add(lastSentence);
+    /**
+     * Конвейерное семантическое разделение текста: чанки передаются в consumer,
+     * пока эмбеддинги следующих предложений еще вычисляются. Результат совпадает
+     * с semanticChunking(String, int), но первый чанк готов после первой небольшой
+     * пачки эмбеддингов, а группирование и обработка чанков в consumer идут
+     * одновременно с запросами к серверу. Чанки ссылаются на text, как в semanticChunking(String, int).
+     * Иерархическая кластеризация и точки разрыва зависят от всех предложений и выполняются целиком.
+     * Возвращает количество чанков
+     */
+    public int semanticChunking(String text, int maxChunkSize, Consumer<Chunk> consumer) throws Exception {
+        if (text == null) {
+            return 0;
+        }
+        if (groupingStrategy != GroupingStrategy.SLIDING_WINDOW) {
+            List<Chunk> chunks = semanticChunking(text, maxChunkSize);
+            chunks.forEach(consumer);
+            return chunks.size();
         }
+        return pipelinedChunking(new StringReader(text), text, maxChunkSize, consumer);
+    }
 
-        // Если паттерн не сработал, используем простой fallback
-        if (sentences.isEmpty()) {
-            return splitIntoSentencesSimple(text);
+    /**
+     * Конвейер "предложения -> эмбеддинги -> скользящее окно": пачки предложений
+     * отправляются на эмбеддинг по мере чтения, не дожидаясь предыдущих, а готовые
+     * пачки передаются в окно строго по порядку. source - исходный текст для чанков
+     * со ссылкой на него (null - текст чанков собирается из предложений)
+     */
+    private int pipelinedChunking(Reader reader, CharSequence source, int maxChunkSize,
+                                  Consumer<Chunk> consumer) throws Exception {
+        SlidingWindowStream stream = new SlidingWindowStream(maxChunkSize, consumer, source);
+        try (EmbeddingPipeline pipeline = new EmbeddingPipeline(stream, source)) {
+            SentenceSplitter splitter = new SentenceSplitter(pipeline::add);
+
+            char[] buffer = new char[STREAM_BUFFER_SIZE];
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                splitter.feed(buffer, 0, read);
+                pipeline.collect();
+            }
+            splitter.finish();
+            pipeline.finish();
+
+            System.out.println("Разбито на " + splitter.getSentenceCount() + " предложений");
+            System.out.println("Создано " + stream.chunkCount + " семантических чанков");
+            return stream.chunkCount;
         }
+    }
 
-        return sentences;
+    /**
+     * Группировка поддерживает потоковый режим (чанки по мере поступления предложений)
+     */
+    boolean isStreamingSupported() {
+        return groupingStrategy == GroupingStrategy.SLIDING_WINDOW;
     }
 
     /**
-     * Простое разделение на предложения (fallback)
+     * Эмбеддинги пачки предложений с кэшем (стадия эмбеддинга IngestPipeline)
      */
-    private List<String> splitIntoSentencesSimple(String text) {
-        List<String> sentences = new ArrayList<>();
-        String[] rawSentences = text.split("(?<=[.!?])\\s+");
+    List<CompactEmbedding> embedSentences(List<String> sentences) throws Exception {
+        return getEmbeddingsBatchWithCache(sentences);
+    }
 
-        for (String sentence : rawSentences) {
-            sentence = sentence.trim();
-            if (!sentence.isEmpty()) {
-                sentences.add(sentence);
-            }
+    /**
+     * Группировка скользящим окном по мере поступления пачек предложений с эмбеддингами
+     * (стадия группировки IngestPipeline); исходный текст не хранится
+     */
+    SlidingWindowStream slidingWindowStream(int maxChunkSize, Consumer<Chunk> consumer) {
+        return new SlidingWindowStream(maxChunkSize, consumer, null);
+    }
+
+    /**
+     * Улучшенное разделение текста на предложения
+     * Обрабатывает сокращения, инициалы, цифры с точками и т.д.
+     * Текст не копируется целиком: сканер находит границы предложений,
+     * а пробелы схлопываются только внутри создаваемых строк предложений.
+     * Границы запоминаются, чтобы чанки ссылались на исходный текст
+     */
+    private SourceSentences splitIntoSentencesAdvanced(String text) {
+        SourceSentences sentences = new SourceSentences(text);
+        if (text != null) {
+            SentenceSplitter.scan(text, (start, end) ->
+                    sentences.add(SentenceSplitter.normalize(text, start, end), start, end));
         }
         return sentences;
     }
 
     /**
-     * Пакетное получение эмбеддингов с использованием кэша
+     * Пакетное получение эмбеддингов с использованием кэша.
+     * Повторы внутри пачки запрашиваются один раз, а предложения, которые уже
+     * запрашивает другой поток, не запрашиваются повторно: поток ждет общий результат
      */
-    private List<float[]> getEmbeddingsBatchWithCache(List<String> sentences) throws Exception {
-        List<float[]> embeddings = new ArrayList<>(sentences.size());
-        List<String> uncachedSentences = new ArrayList<>();
-        List<Integer> uncachedIndices = new ArrayList<>();
+    private List<CompactEmbedding> getEmbeddingsBatchWithCache(List<String> sentences) throws Exception {
+        CompactEmbedding[] embeddings = new CompactEmbedding[sentences.size()];
+        // Уникальные некэшированные предложения -> их позиции в пачке
+        Map<String, List<Integer>> uncached = new LinkedHashMap<>();
 
-        // Проверяем кэш
+        // Проверяем кэш в памяти, затем на диске
         for (int i = 0; i < sentences.size(); i++) {
             String sentence = sentences.get(i);
-            float[] cachedEmbedding = embeddingCache.get(sentence);
+            CompactEmbedding cachedEmbedding = getCachedEmbedding(sentence);
 
             if (cachedEmbedding != null) {
-                embeddings.add(cachedEmbedding);
+                embeddings[i] = cachedEmbedding;
             } else {
-                embeddings.add(null); // Заполнитель
-                uncachedSentences.add(sentence);
-                uncachedIndices.add(i);
+                uncached.computeIfAbsent(sentence, key -> new ArrayList<>(1)).add(i);
             }
         }
 
-        // Получаем эмбеддинги для некэшированных предложений пачками
-        if (!uncachedSentences.isEmpty()) {
-            System.out.println("Получение эмбеддингов для " + uncachedSentences.size() + " предложений");
-            List<float[]> uncachedEmbeddings = getEmbeddingsBatch(uncachedSentences);
+        if (uncached.isEmpty()) {
+            return Arrays.asList(embeddings);
+        }
 
-            // Заполняем результаты и кэшируем
-            for (int i = 0; i < uncachedEmbeddings.size(); i++) {
-                int originalIndex = uncachedIndices.get(i);
-                float[] embedding = uncachedEmbeddings.get(i);
+        // Регистрируем запросы: свои отправляем сами, чужие ждем
+        List<String> ownSentences = new ArrayList<>();
+        List<CompletableFuture<CompactEmbedding>> ownFutures = new ArrayList<>();
+        Map<String, CompletableFuture<CompactEmbedding>> foreignFutures = new HashMap<>();
+
+        for (String sentence : uncached.keySet()) {
+            CompletableFuture<CompactEmbedding> future = new CompletableFuture<>();
+            CompletableFuture<CompactEmbedding> existing = inFlightEmbeddings.putIfAbsent(sentence, future);
+            if (existing != null) {
+                foreignFutures.put(sentence, existing);
+                continue;
+            }
 
-                embeddings.set(originalIndex, embedding);
-                embeddingCache.put(uncachedSentences.get(i), embedding);
+            // Другой поток мог закэшировать результат между проверкой кэша и регистрацией.
+            // cacheEmbedding пишет и в кэш в памяти, поэтому достаточно peek (промах уже учтен)
+            CompactEmbedding cachedEmbedding = embeddingCache.peek(sentence);
+            if (cachedEmbedding != null) {
+                inFlightEmbeddings.remove(sentence, future);
+                future.complete(cachedEmbedding);
+                foreignFutures.put(sentence, future);
+            } else {
+                ownSentences.add(sentence);
+                ownFutures.add(future);
             }
         }
 
-        return embeddings;
-    }
-
-    /**
-     * Пакетное получение эмбеддингов через Ollama API
-     * Ollama не поддерживает массив prompts, поэтому отправляем по одному
-     */
-    private List<float[]> getEmbeddingsBatch(List<String> sentences) throws Exception {
-        List<float[]> embeddings = new ArrayList<>();
-
-        // Обрабатываем предложения пачками для управления скоростью запросов
-        for (int i = 0; i < sentences.size(); i += batchSize) {
-            int end = Math.min(i + batchSize, sentences.size());
-            List<String> batch = sentences.subList(i, end);
-
-            // Для каждого предложения в пачке получаем эмбеддинг отдельно
-            for (String sentence : batch) {
-                float[] embedding = getSingleEmbedding(sentence);
-                embeddings.add(embedding);
-
-                // Небольшая задержка между запросами в одной пачке
-                if (batch.indexOf(sentence) < batch.size() - 1) {
-                    Thread.sleep(50);
+        // Получаем эмбеддинги для своих предложений частями, чтобы результаты
+        // попадали в кэш и к ожидающим потокам, не дожидаясь конца всей пачки
+        if (!ownSentences.isEmpty()) {
+            System.out.println("Получение эмбеддингов для " + ownSentences.size() + " предложений");
+        }
+        for (int from = 0; from < ownSentences.size(); from += IN_FLIGHT_SLICE_SIZE) {
+            int to = Math.min(from + IN_FLIGHT_SLICE_SIZE, ownSentences.size());
+            List<String> slice = ownSentences.subList(from, to);
+            try {
+                long loadStart = System.nanoTime();
+                List<float[]> sliceEmbeddings = embeddingProvider.getEmbeddings(slice);
+                embeddingCache.recordLoad(slice.size(), System.nanoTime() - loadStart);
+
+                // Кэшируем до снятия регистрации, чтобы другой поток увидел либо запрос, либо кэш
+                for (int k = 0; k < slice.size(); k++) {
+                    String sentence = slice.get(k);
+                    CompactEmbedding embedding = cacheEmbedding(sentence, sliceEmbeddings.get(k));
+                    for (int index : uncached.get(sentence)) {
+                        embeddings[index] = embedding;
+                    }
+                    inFlightEmbeddings.remove(sentence, ownFutures.get(from + k));
+                    ownFutures.get(from + k).complete(embedding);
+                }
+            } catch (Exception | Error e) {
+                // Ожидающие потоки должны получить ошибку, а не зависнуть
+                for (int k = from; k < ownSentences.size(); k++) {
+                    inFlightEmbeddings.remove(ownSentences.get(k), ownFutures.get(k));
+                    ownFutures.get(k).completeExceptionally(e);
                 }
+                throw e;
             }
+        }
 
-            // Небольшая задержка между пачками
-            if (end < sentences.size()) {
-                Thread.sleep(100);
+        // Дожидаемся предложений, запрошенных другими потоками
+        for (Map.Entry<String, CompletableFuture<CompactEmbedding>> entry : foreignFutures.entrySet()) {
+            CompactEmbedding embedding;
+            try {
+                embedding = entry.getValue().join();
+            } catch (CompletionException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof Exception exception ? exception : e;
+            }
+            for (int index : uncached.get(entry.getKey())) {
+                embeddings[index] = embedding;
             }
         }
 
-        return embeddings;
+        return Arrays.asList(embeddings);
     }
 
     /**
-     * Получает эмбеддинг для одного текста через Ollama API
+     * Ищет эмбеддинг в кэше в памяти, затем в постоянном кэше на диске
      */
-    private float[] getSingleEmbedding(String text) throws Exception {
-        JSONObject requestBody = new JSONObject();
-        requestBody.put("model", embeddingModel);
-        requestBody.put("prompt", text);
-
-        System.out.println("Получение эмбеддинга для: " +
-                (text.length() > 50 ? text.substring(0, 50) + "..." : text));
-
-        HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(ollamaBaseUrl + "/api/embeddings"))
-                .header("Content-Type", "application/json")
-                .POST(HttpRequest.BodyPublishers.ofString(requestBody.toString()))
-                .build();
-
-        HttpResponse<String> response = httpClient.send(
-                request, HttpResponse.BodyHandlers.ofString());
-
-        if (response.statusCode() != 200) {
-            throw new RuntimeException("Ошибка при получении эмбеддинга: " + response.body());
+    private CompactEmbedding getCachedEmbedding(String sentence) {
+        CompactEmbedding embedding = embeddingCache.get(sentence);
+        if (embedding == null && persistentCache != null) {
+            float[] stored = persistentCache.get(embeddingProvider.getModelName(), sentence);
+            if (stored != null) {
+                embedding = CompactEmbedding.of(stored, embeddingStorage);
+                embeddingCache.put(sentence, embedding);
+            }
         }
+        return embedding;
+    }
 
-        JSONObject responseJson = new JSONObject(response.body());
-        JSONArray embeddingArray = responseJson.getJSONArray("embedding");
-
-        float[] embedding = new float[embeddingArray.length()];
-        for (int i = 0; i < embeddingArray.length(); i++) {
-            embedding[i] = (float) embeddingArray.getDouble(i);
+    /**
+     * Сохраняет эмбеддинг в постоянный кэш на диске (без потери точности)
+     * и в компактном виде в кэш в памяти; возвращает компактное представление
+     */
+    private CompactEmbedding cacheEmbedding(String sentence, float[] embedding) {
+        if (persistentCache != null) {
+            persistentCache.put(embeddingProvider.getModelName(), sentence, embedding);
         }
-
-        return embedding;
+        CompactEmbedding compact = CompactEmbedding.of(embedding, embeddingStorage);
+        embeddingCache.put(sentence, compact);
+        return compact;
     }
 
     /**
-     * Получает эмбеддинг для одного текста через Ollama API (для обратной совместимости)
+     * Получает эмбеддинг для одного текста через источник эмбеддингов (для обратной совместимости)
      */
     public float[] getEmbedding(String text) throws Exception {
-        // Проверяем кэш
-        float[] cached = embeddingCache.get(text);
-        if (cached != null) {
-            return cached.clone();
-        }
-        float[] embedding = getSingleEmbedding(text);
-        // Кэшируем результат
-        embeddingCache.put(text, embedding.clone());
-        return embedding;
+        // Через общий путь (он же проверяет кэш), чтобы одинаковые параллельные запросы объединялись
+        return getEmbeddingsBatchWithCache(List.of(text)).get(0).toFloatArray();
     }
 
     /**
@@ -313,15 +586,10 @@ public class SemanticChunker {
             throw new IllegalArgumentException("Векторы должны иметь одинаковую размерность");
         }
 
-        double dotProduct = 0.0;
-        double normA = 0.0;
-        double normB = 0.0;
-
-        for (int i = 0; i < vectorA.length; i++) {
-            dotProduct += vectorA[i] * vectorB[i];
-            normA += Math.pow(vectorA[i], 2);
-            normB += Math.pow(vectorB[i], 2);
-        }
+        SimilarityKernel kernel = SimilarityKernel.scalar();
+        double dotProduct = kernel.dot(vectorA, 0, vectorB, 0, vectorA.length);
+        double normA = kernel.dot(vectorA, 0, vectorA, 0, vectorA.length);
+        double normB = kernel.dot(vectorB, 0, vectorB, 0, vectorB.length);
 
         if (normA == 0 || normB == 0) {
             return 0.0;
@@ -331,86 +599,644 @@ public class SemanticChunker {
     }
 
     /**
-     * Группирует предложения с использованием скользящего окна
+     * Косинусное сходство компактных эмбеддингов (нормы вычислены заранее)
      */
-    private List<Chunk> groupSentencesWithSlidingWindow(List<String> sentences,
-                                                        List<float[]> embeddings,
+    public double cosineSimilarity(CompactEmbedding vectorA, CompactEmbedding vectorB) {
+        return vectorA.cosineSimilarity(vectorB);
+    }
+
+    /**
+     * Группирует предложения с использованием скользящего окна.
+     * Каждое нужное сходство пары предложений вычисляется один раз (PairSimilarities),
+     * поэтому группировка стоит O(n * windowSize * dim) вместо пересчета окна и соседних пар
+     * на каждом шаге; границы чанков те же
+     */
+    List<Chunk> groupSentencesWithSlidingWindow(List<String> sentences,
+                                                EmbeddingMatrix embeddings,
+                                                int maxChunkSize) {
+        return groupSentencesWithSlidingWindow(SourceSentences.of(sentences), embeddings, maxChunkSize);
+    }
+
+    private List<Chunk> groupSentencesWithSlidingWindow(SourceSentences source,
+                                                        EmbeddingMatrix embeddings,
                                                         int maxChunkSize) {
         List<Chunk> chunks = new ArrayList<>();
+        List<String> sentences = source.list();
 
         if (sentences.isEmpty()) {
             return chunks;
         }
 
+        PairSimilarities similarities = new PairSimilarities(embeddings, windowSize);
         int i = 0;
         while (i < sentences.size()) {
-            // Определяем границы окна
-            int windowEnd = Math.min(i + windowSize, sentences.size());
-            List<String> windowSentences = sentences.subList(i, windowEnd);
-            List<float[]> windowEmbeddings = embeddings.subList(i, windowEnd);
-
-            // Вычисляем среднее сходство в окне
-            double avgSimilarity = calculateAverageSimilarity(windowEmbeddings);
-
-            // Определяем, где закончить чанк
-            int chunkEnd = i + 1;
-            if (avgSimilarity >= similarityThreshold) {
-                // Расширяем чанк
-                chunkEnd = findOptimalChunkEnd(sentences, embeddings, i, maxChunkSize);
-            } else {
-                // Если сходство низкое, пробуем объединить с соседним предложением
-                if (i + 1 < sentences.size()) {
-                    double nextSimilarity = cosineSimilarity(embeddings.get(i), embeddings.get(i + 1));
-                    if (nextSimilarity >= similarityThreshold) {
-                        chunkEnd = i + 2;
+            int chunkEnd = nextChunkEnd(sentences, similarities, i, maxChunkSize);
+            chunks.add(createChunk(source, embeddings, i, chunkEnd, i));
+            i = chunkEnd;
+        }
+
+        System.out.println("Создано " + chunks.size() + " семантических чанков");
+        return chunks;
+    }
+
+    /**
+     * Группировка скользящим окном по частям текста; части начинаются с предложений
+     * segmentStarts. Каждая часть группируется отдельно от своего первого предложения,
+     * пока чанки начинаются внутри нее (конец чанка может уйти в следующую часть).
+     * Затем части сшиваются по порядку: если последний чанк предыдущей части закончился
+     * не на начале чанка этой части, чанки пересчитываются от него, пока граница
+     * не совпадет с уже найденной. Конец чанка зависит только от его начала,
+     * поэтому результат совпадает с последовательной группировкой
+     */
+    private List<Chunk> groupSentencesWithSlidingWindow(SourceSentences source,
+                                                        EmbeddingMatrix embeddings,
+                                                        int[] segmentStarts,
+                                                        int maxChunkSize) {
+        List<String> sentences = source.list();
+        int n = sentences.size();
+        int segmentCount = segmentStarts.length;
+        List<SegmentChunks> segmentChunks = IntStream.range(0, segmentCount).parallel()
+                .mapToObj(k -> {
+                    int to = k + 1 < segmentCount ? segmentStarts[k + 1] : n;
+                    PairSimilarities similarities = new PairSimilarities(embeddings, windowSize, segmentStarts[k]);
+                    List<Chunk> chunks = new ArrayList<>();
+                    int i = segmentStarts[k];
+                    while (i < to) {
+                        int chunkEnd = nextChunkEnd(sentences, similarities, i, maxChunkSize);
+                        chunks.add(createChunk(source, embeddings, i, chunkEnd, i));
+                        i = chunkEnd;
                     }
+                    return new SegmentChunks(chunks, i);
+                })
+                .toList();
+
+        List<Chunk> chunks = new ArrayList<>();
+        int position = 0;
+        for (int k = 0; k < segmentCount; k++) {
+            int to = k + 1 < segmentCount ? segmentStarts[k + 1] : n;
+            if (position >= to) {
+                continue; // Часть целиком вошла в чанк, начатый раньше
+            }
+
+            List<Chunk> candidates = segmentChunks.get(k).chunks;
+            int index = indexOfPosition(candidates, position);
+            if (index < 0) {
+                // Стык: пересчитываем чанки от конца предыдущего до совпадения с найденными
+                PairSimilarities similarities = new PairSimilarities(embeddings, windowSize, position);
+                while (index < 0 && position < to) {
+                    int chunkEnd = nextChunkEnd(sentences, similarities, position, maxChunkSize);
+                    chunks.add(createChunk(source, embeddings, position, chunkEnd, position));
+                    position = chunkEnd;
+                    index = indexOfPosition(candidates, position);
                 }
             }
+            if (index >= 0) {
+                chunks.addAll(candidates.subList(index, candidates.size()));
+                position = segmentChunks.get(k).end;
+            }
+        }
 
-            // Создаем чанк
-            List<String> chunkSentences = sentences.subList(i, chunkEnd);
-            List<float[]> chunkEmbeddings = embeddings.subList(i, chunkEnd);
+        System.out.println("Создано " + chunks.size() + " семантических чанков");
+        return chunks;
+    }
 
-            String chunkText = String.join(" ", chunkSentences);
-            float[] chunkEmbedding = calculateAverageEmbedding(chunkEmbeddings);
-            chunks.add(new Chunk(chunkText, chunkEmbedding, i));
+    /**
+     * Чанки части текста и конец последнего из них (номер предложения)
+     */
+    private static class SegmentChunks {
+        private final List<Chunk> chunks;
+        private final int end;
 
-            i = chunkEnd;
+        SegmentChunks(List<Chunk> chunks, int end) {
+            this.chunks = chunks;
+            this.end = end;
         }
+    }
 
-        System.out.println("Создано " + chunks.size() + " семантических чанков");
+    /**
+     * Номер чанка с позицией position в упорядоченном по позициям списке или -1
+     */
+    private static int indexOfPosition(List<Chunk> chunks, int position) {
+        int low = 0;
+        int high = chunks.size() - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int middlePosition = chunks.get(middle).getPosition();
+            if (middlePosition < position) {
+                low = middle + 1;
+            } else if (middlePosition > position) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Определяет конец чанка, начинающегося с предложения start (шаг скользящего окна)
+     */
+    private int nextChunkEnd(List<String> sentences, PairSimilarities similarities,
+                             int start, int maxChunkSize) {
+        // Определяем границы окна
+        int windowEnd = Math.min(start + windowSize, sentences.size());
+
+        // Вычисляем среднее сходство в окне
+        double avgSimilarity = calculateAverageSimilarity(similarities, start, windowEnd);
+
+        // Определяем, где закончить чанк
+        int chunkEnd = start + 1;
+        if (avgSimilarity >= similarityThreshold) {
+            // Расширяем чанк
+            chunkEnd = findOptimalChunkEnd(sentences, similarities, start, maxChunkSize);
+        } else {
+            // Если сходство низкое, пробуем объединить с соседним предложением
+            if (start + 1 < sentences.size()) {
+                double nextSimilarity = similarities.get(start, start + 1);
+                if (nextSimilarity >= similarityThreshold) {
+                    chunkEnd = start + 2;
+                }
+            }
+        }
+        return chunkEnd;
+    }
+
+    /**
+     * Создает чанк из предложений [from, to). Если исходный текст хранится, чанк ссылается
+     * на него смещениями и строка текста не создается (предложения чанка идут в тексте подряд
+     * и разделены только пробельными символами, поэтому нормализованный фрагмент текста
+     * совпадает с предложениями, соединенными пробелом)
+     */
+    private Chunk createChunk(SourceSentences sentences, EmbeddingMatrix embeddings,
+                              int from, int to, int position) {
+        float[] sum = new float[embeddings.dimensions()];
+        embeddings.sumRows(from, to, sum);
+        CompactEmbedding chunkEmbedding = calculateAverageEmbedding(sum, to - from);
+        if (!sentences.hasOffsets()) {
+            return new Chunk(String.join(" ", sentences.list().subList(from, to)), chunkEmbedding, position);
+        }
+        if (sentences.source() != null) {
+            return new Chunk(sentences.source(), (int) sentences.start(from), (int) sentences.end(to - 1),
+                    chunkEmbedding, position);
+        }
+        return new Chunk(String.join(" ", sentences.list().subList(from, to)), chunkEmbedding, position,
+                sentences.start(from), sentences.end(to - 1));
+    }
+
+    /**
+     * Предложения и их границы [start, end) в исходном тексте (в символах).
+     * source - сам текст или null, если он не хранится (потоковый режим)
+     */
+    static final class SourceSentences {
+        private final CharSequence source;
+        private final boolean offsets;
+        private final List<String> sentences = new ArrayList<>();
+        // Границы предложения i: bounds[2 * i], bounds[2 * i + 1]
+        private long[] bounds = new long[64];
+
+        SourceSentences(CharSequence source) {
+            this(source, true);
+        }
+
+        private SourceSentences(CharSequence source, boolean offsets) {
+            this.source = source;
+            this.offsets = offsets;
+        }
+
+        /**
+         * Предложения без границ в тексте
+         */
+        static SourceSentences of(List<String> sentences) {
+            SourceSentences result = new SourceSentences(null, false);
+            result.sentences.addAll(sentences);
+            return result;
+        }
+
+        void add(String sentence, long start, long end) {
+            int index = sentences.size();
+            if (2 * index + 2 > bounds.length) {
+                bounds = Arrays.copyOf(bounds, bounds.length * 2);
+            }
+            bounds[2 * index] = start;
+            bounds[2 * index + 1] = end;
+            sentences.add(sentence);
+        }
+
+        void addAll(SourceSentences other) {
+            for (int i = 0; i < other.size(); i++) {
+                add(other.sentences.get(i), other.start(i), other.end(i));
+            }
+        }
+
+        int size() {
+            return sentences.size();
+        }
+
+        List<String> list() {
+            return sentences;
+        }
+
+        boolean hasOffsets() {
+            return offsets;
+        }
+
+        CharSequence source() {
+            return source;
+        }
+
+        long start(int index) {
+            return bounds[2 * index];
+        }
+
+        long end(int index) {
+            return bounds[2 * index + 1];
+        }
+
+        void clear() {
+            sentences.clear();
+        }
+
+        /**
+         * Удаляет первые count предложений; нумерация сдвигается
+         */
+        void dropPrefix(int count) {
+            System.arraycopy(bounds, 2 * count, bounds, 0, 2 * (sentences.size() - count));
+            sentences.subList(0, count).clear();
+        }
+    }
+
+    /**
+     * Эмбеддинги пачек предложений в виртуальных потоках: пока ожидаются ответы сервера,
+     * вызывающий поток читает текст дальше и группирует уже готовые пачки. Пачки
+     * передаются в SlidingWindowStream в порядке текста; одновременно ожидается
+     * не больше PIPELINE_MAX_IN_FLIGHT пачек
+     */
+    private class EmbeddingPipeline implements AutoCloseable {
+        private final SlidingWindowStream stream;
+        private final CharSequence source;
+        private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        private final ArrayDeque<PendingBatch> inFlight = new ArrayDeque<>();
+        private SourceSentences pending;
+        private int batchSize = PIPELINE_FIRST_BATCH;
+
+        EmbeddingPipeline(SlidingWindowStream stream, CharSequence source) {
+            this.stream = stream;
+            this.source = source;
+            this.pending = new SourceSentences(source);
+        }
+
+        /**
+         * Очередное предложение от SentenceSplitter; полная пачка сразу уходит на эмбеддинг
+         */
+        void add(String sentence, long start, long end) {
+            pending.add(sentence, start, end);
+            if (pending.size() >= batchSize) {
+                submit();
+                batchSize = Math.min(STREAM_EMBEDDING_BATCH, batchSize * 2);
+            }
+        }
+
+        /**
+         * Передает в окно готовые пачки из начала очереди; ждет, если пачек слишком много
+         */
+        void collect() throws Exception {
+            while (!inFlight.isEmpty() && (inFlight.peek().embeddings.isDone() || inFlight.size() > PIPELINE_MAX_IN_FLIGHT)) {
+                appendNext();
+            }
+        }
+
+        /**
+         * Отправляет остаток предложений и дожидается всех пачек
+         */
+        void finish() throws Exception {
+            if (pending.size() > 0) {
+                submit();
+            }
+            while (!inFlight.isEmpty()) {
+                appendNext();
+            }
+            stream.finish();
+        }
+
+        private void submit() {
+            SourceSentences batch = pending;
+            pending = new SourceSentences(source);
+            CompletableFuture<List<CompactEmbedding>> embeddings = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return getEmbeddingsBatchWithCache(batch.list());
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                }
+            }, executor);
+            inFlight.add(new PendingBatch(batch, embeddings));
+        }
+
+        private void appendNext() throws Exception {
+            PendingBatch batch = inFlight.poll();
+            List<CompactEmbedding> embeddings;
+            try {
+                embeddings = batch.embeddings.join();
+            } catch (CompletionException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof Exception exception ? exception : e;
+            }
+            stream.append(batch.sentences, embeddings);
+        }
+
+        /**
+         * Ожидающие пачки не нужны, если конвейер прерван ошибкой
+         */
+        @Override
+        public void close() {
+            executor.shutdownNow();
+        }
+    }
+
+    private record PendingBatch(SourceSentences sentences, CompletableFuture<List<CompactEmbedding>> embeddings) {
+    }
+
+    /**
+     * Группировка скользящим окном по мере поступления предложений. Чанк выдается,
+     * когда его граница уже не зависит от следующих предложений: окно заполнено
+     * и конец чанка найден раньше последнего известного предложения
+     */
+    class SlidingWindowStream {
+        private final int maxChunkSize;
+        private final Consumer<Chunk> consumer;
+        private final SourceSentences sentences;
+        // Создаются с первыми эмбеддингами, когда известна размерность
+        private EmbeddingMatrix embeddings;
+        private PairSimilarities similarities;
+        // Номер первого хранимого предложения в тексте
+        private int basePosition;
+        private int chunkCount;
+
+        SlidingWindowStream(int maxChunkSize, Consumer<Chunk> consumer, CharSequence source) {
+            this.maxChunkSize = maxChunkSize;
+            this.consumer = consumer;
+            this.sentences = new SourceSentences(source);
+        }
+
+        void append(SourceSentences newSentences, List<CompactEmbedding> newEmbeddings) {
+            if (embeddings == null) {
+                embeddings = new EmbeddingMatrix(newEmbeddings.get(0).dimensions(), STREAM_EMBEDDING_BATCH * 2);
+                similarities = new PairSimilarities(embeddings, windowSize);
+            }
+            sentences.addAll(newSentences);
+            embeddings.addAll(newEmbeddings);
+            drain(false);
+        }
+
+        void finish() {
+            drain(true);
+        }
+
+        private void drain(boolean endOfInput) {
+            int i = 0;
+            while (i < sentences.size()) {
+                int available = sentences.size();
+                if (!endOfInput && available < i + Math.max(windowSize, 2)) {
+                    break;
+                }
+                int chunkEnd = nextChunkEnd(sentences.list(), similarities, i, maxChunkSize);
+                // Чанк дошел до последнего известного предложения - следующие могут его продлить
+                if (!endOfInput && chunkEnd >= available) {
+                    break;
+                }
+                consumer.accept(createChunk(sentences, embeddings, i, chunkEnd, basePosition + i));
+                chunkCount++;
+                i = chunkEnd;
+            }
+
+            // Выданные предложения больше не нужны
+            sentences.dropPrefix(i);
+            if (embeddings != null) {
+                embeddings.dropPrefix(i);
+                similarities.dropPrefix(i);
+            }
+            basePosition += i;
+        }
+    }
+
+    /**
+     * Косинусные сходства пар предложений, вычисляемые не более одного раза.
+     * Пары на расстоянии до windowSize - 1 (и соседние) запоминаются в ленте шириной
+     * bandWidth на предложение при первом обращении; более далекие пары не запоминаются.
+     * Значения те же, что дает cosineSimilarity, поэтому суммы и пороги не меняются
+     */
+    private static class PairSimilarities {
+        private final EmbeddingMatrix embeddings;
+        private final int bandWidth;
+        // Первое предложение, для которого запрашиваются сходства
+        private final int first;
+        // Сходство (a, a + d) хранится в band[(a - first) * bandWidth + d - 1]; NaN - еще не вычислено
+        private double[] band = new double[0];
+
+        PairSimilarities(EmbeddingMatrix embeddings, int windowSize) {
+            this(embeddings, windowSize, 0);
+        }
+
+        PairSimilarities(EmbeddingMatrix embeddings, int windowSize, int first) {
+            this.embeddings = embeddings;
+            this.bandWidth = Math.max(1, windowSize - 1);
+            this.first = first;
+        }
+
+        /**
+         * Сходство предложений a и b (first <= a < b)
+         */
+        double get(int a, int b) {
+            int distance = b - a;
+            if (distance > bandWidth) {
+                return embeddings.cosineSimilarity(a, b);
+            }
+
+            int slot = (a - first) * bandWidth + distance - 1;
+            if (slot >= band.length) {
+                int oldLength = band.length;
+                band = Arrays.copyOf(band, Math.max(slot + 1, oldLength * 2));
+                Arrays.fill(band, oldLength, band.length, Double.NaN);
+            }
+            double similarity = band[slot];
+            if (Double.isNaN(similarity)) {
+                similarity = embeddings.cosineSimilarity(a, b);
+                band[slot] = similarity;
+            }
+            return similarity;
+        }
+
+        /**
+         * Сдвигает нумерацию после удаления первых count предложений
+         */
+        void dropPrefix(int count) {
+            int shift = Math.min(band.length, count * bandWidth);
+            System.arraycopy(band, shift, band, 0, band.length - shift);
+            Arrays.fill(band, band.length - shift, band.length, Double.NaN);
+        }
+    }
+
+    /**
+     * Группировка по точкам разрыва: расстояния соседних предложений (1 - косинусное
+     * сходство) вычисляются один раз, порог - перцентиль расстояний (PERCENTILE, выбор
+     * за O(n)) или среднее плюс breakpointAmount стандартных отклонений (STD_DEV).
+     * Чанк заканчивается после предложения, расстояние от которого до следующего выше
+     * порога, или раньше, если следующее предложение превысит maxChunkSize.
+     * Один проход по предложениям без попарных сравнений внутри окна
+     */
+    List<Chunk> groupSentencesByBreakpoints(List<String> sentences, EmbeddingMatrix embeddings, int maxChunkSize) {
+        return groupSentencesByBreakpoints(SourceSentences.of(sentences), embeddings, maxChunkSize);
+    }
+
+    private List<Chunk> groupSentencesByBreakpoints(SourceSentences source, EmbeddingMatrix embeddings,
+                                                    int maxChunkSize) {
+        List<Chunk> chunks = new ArrayList<>();
+        List<String> sentences = source.list();
+        int n = sentences.size();
+        if (n == 0) {
+            return chunks;
+        }
+
+        double[] distances = new double[Math.max(0, n - 1)];
+        for (int i = 0; i + 1 < n; i++) {
+            distances[i] = 1.0 - embeddings.cosineSimilarity(i, i + 1);
+        }
+        double breakpoint = groupingStrategy == GroupingStrategy.STD_DEV
+                ? stdDevThreshold(distances, breakpointAmount)
+                : percentile(distances, breakpointAmount);
+
+        int start = 0;
+        int currentLength = 0;
+        for (int i = 0; i < n; i++) {
+            int sentenceLength = sentences.get(i).length() + (i == start ? 0 : 1);
+            if (currentLength + sentenceLength > maxChunkSize && i > start) {
+                chunks.add(createChunk(source, embeddings, start, i, start));
+                start = i;
+                sentenceLength = sentences.get(i).length();
+                currentLength = 0;
+            }
+            currentLength += sentenceLength;
+
+            if (i + 1 < n && distances[i] > breakpoint) {
+                chunks.add(createChunk(source, embeddings, start, i + 1, start));
+                start = i + 1;
+                currentLength = 0;
+            }
+        }
+        if (start < n) {
+            chunks.add(createChunk(source, embeddings, start, n, start));
+        }
+
+        System.out.println("Создано " + chunks.size() + " семантических чанков (порог расстояния "
+                + String.format("%.4f", breakpoint) + ")");
         return chunks;
     }
 
+    /**
+     * Перцентиль (0-100) значений с линейной интерполяцией между соседними рангами
+     * (как numpy.percentile). Выбор Хоара за O(n) на копии массива
+     */
+    static double percentile(double[] values, double percentile) {
+        if (values.length == 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double[] copy = values.clone();
+        double rank = Math.max(0, Math.min(100, percentile)) / 100.0 * (copy.length - 1);
+        int lower = (int) Math.floor(rank);
+        double lowerValue = select(copy, lower);
+        if (lower + 1 >= copy.length || rank == lower) {
+            return lowerValue;
+        }
+        // После выбора справа от lower только значения не меньше: следующий ранг - их минимум
+        double upperValue = Double.POSITIVE_INFINITY;
+        for (int i = lower + 1; i < copy.length; i++) {
+            upperValue = Math.min(upperValue, copy[i]);
+        }
+        return lowerValue + (rank - lower) * (upperValue - lowerValue);
+    }
+
+    /**
+     * k-й по возрастанию элемент; массив переставляется так, что слева от k не больше, справа не меньше
+     */
+    private static double select(double[] values, int k) {
+        int left = 0;
+        int right = values.length - 1;
+        while (left < right) {
+            // Опорный элемент - медиана трех, чтобы упорядоченные данные не давали O(n^2)
+            int middle = (left + right) >>> 1;
+            double pivot = medianOfThree(values[left], values[middle], values[right]);
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (values[i] < pivot) i++;
+                while (values[j] > pivot) j--;
+                if (i <= j) {
+                    double swap = values[i];
+                    values[i] = values[j];
+                    values[j] = swap;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                right = j;
+            } else if (k >= i) {
+                left = i;
+            } else {
+                return values[k];
+            }
+        }
+        return values[k];
+    }
+
+    private static double medianOfThree(double a, double b, double c) {
+        return Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+    }
+
+    /**
+     * Среднее плюс amount стандартных отклонений (по всей выборке)
+     */
+    static double stdDevThreshold(double[] values, double amount) {
+        if (values.length == 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double sum = 0.0;
+        for (double value : values) {
+            sum += value;
+        }
+        double mean = sum / values.length;
+        double squares = 0.0;
+        for (double value : values) {
+            squares += (value - mean) * (value - mean);
+        }
+        return mean + amount * Math.sqrt(squares / values.length);
+    }
+
     /**
      * Иерархическая кластеризация предложений
      */
     private List<Chunk> groupSentencesWithHierarchicalClustering(List<String> sentences,
-                                                                 List<float[]> embeddings,
+                                                                 EmbeddingMatrix embeddings,
                                                                  int maxChunkSize) {
         List<Chunk> chunks = new ArrayList<>();
 
         if (sentences.size() <= 1) {
             if (!sentences.isEmpty()) {
                 String chunkText = sentences.get(0);
-                float[] chunkEmbedding = embeddings.get(0);
+                float[] vector = new float[embeddings.dimensions()];
+                embeddings.row(0).get(vector);
+                CompactEmbedding chunkEmbedding = CompactEmbedding.of(vector, embeddingStorage);
                 chunks.add(new Chunk(chunkText, chunkEmbedding, 0));
             }
             return chunks;
         }
 
-        // Строим матрицу сходства
-        double[][] similarityMatrix = new double[sentences.size()][sentences.size()];
-        for (int i = 0; i < sentences.size(); i++) {
-            for (int j = i + 1; j < sentences.size(); j++) {
-                double similarity = cosineSimilarity(embeddings.get(i), embeddings.get(j));
-                similarityMatrix[i][j] = similarity;
-                similarityMatrix[j][i] = similarity;
-            }
-        }
+        // Векторы нормализуются один раз: скалярное произведение равно косинусному сходству
+        int n = sentences.size();
+        int dimensions = embeddings.dimensions();
+        float[] rows = embeddings.normalizedRows();
 
-        // Иерархическая кластеризация (упрощенная версия)
-        List<List<Integer>> clusters = performHierarchicalClustering(similarityMatrix, similarityThreshold);
+        // Иерархическая кластеризация (упрощенная версия) с более мягким порогом
+        List<List<Integer>> clusters = hierarchicalClustering.cluster(rows, n, dimensions, similarityThreshold * 0.8);
 
         // Формируем чанки из кластеров
         for (List<Integer> cluster : clusters) {
@@ -418,20 +1244,22 @@ public class SemanticChunker {
 
             Collections.sort(cluster);
             List<String> clusterSentences = new ArrayList<>();
-            List<float[]> clusterEmbeddings = new ArrayList<>();
 
             for (int idx : cluster) {
                 clusterSentences.add(sentences.get(idx));
-                clusterEmbeddings.add(embeddings.get(idx));
             }
 
-            // Разбиваем большие кластеры на чанки по размеру
+            // Разбиваем большие кластеры на чанки по размеру; строки эмбеддингов - те же индексы
             List<List<String>> sizedChunks = splitBySize(clusterSentences, maxChunkSize);
-            List<List<float[]>> sizedEmbeddings = splitEmbeddingsByIndices(clusterEmbeddings, sizedChunks);
+            int clusterIndex = 0;
 
             for (int j = 0; j < sizedChunks.size(); j++) {
                 String chunkText = String.join(" ", sizedChunks.get(j));
-                float[] chunkEmbedding = calculateAverageEmbedding(sizedEmbeddings.get(j));
+                float[] sum = new float[dimensions];
+                for (int k = 0; k < sizedChunks.get(j).size(); k++) {
+                    embeddings.addRow(cluster.get(clusterIndex++), sum);
+                }
+                CompactEmbedding chunkEmbedding = calculateAverageEmbedding(sum, sizedChunks.get(j).size());
                 chunks.add(new Chunk(chunkText, chunkEmbedding, cluster.get(0) + j));
             }
         }
@@ -443,47 +1271,19 @@ public class SemanticChunker {
     }
 
     /**
-     * Упрощенная иерархическая кластеризация
-     */
-    private List<List<Integer>> performHierarchicalClustering(double[][] similarityMatrix, double threshold) {
-        List<List<Integer>> clusters = new ArrayList<>();
-        boolean[] assigned = new boolean[similarityMatrix.length];
-
-        for (int i = 0; i < similarityMatrix.length; i++) {
-            if (!assigned[i]) {
-                List<Integer> cluster = new ArrayList<>();
-                cluster.add(i);
-                assigned[i] = true;
-
-                // Ищем похожие предложения с более мягким порогом
-                for (int j = i + 1; j < similarityMatrix.length; j++) {
-                    if (!assigned[j] && similarityMatrix[i][j] >= threshold * 0.8) { // Более мягкий порог
-                        cluster.add(j);
-                        assigned[j] = true;
-                    }
-                }
-
-                clusters.add(cluster);
-            }
-        }
-
-        return clusters;
-    }
-
-    /**
-     * Вычисляет среднее сходство в списке эмбеддингов
+     * Вычисляет среднее сходство всех пар предложений [from, to)
      */
-    private double calculateAverageSimilarity(List<float[]> embeddings) {
-        if (embeddings.size() <= 1) {
+    private double calculateAverageSimilarity(PairSimilarities similarities, int from, int to) {
+        if (to - from <= 1) {
             return 1.0;
         }
 
         double totalSimilarity = 0.0;
         int comparisons = 0;
 
-        for (int i = 0; i < embeddings.size(); i++) {
-            for (int j = i + 1; j < embeddings.size(); j++) {
-                totalSimilarity += cosineSimilarity(embeddings.get(i), embeddings.get(j));
+        for (int i = from; i < to; i++) {
+            for (int j = i + 1; j < to; j++) {
+                totalSimilarity += similarities.get(i, j);
                 comparisons++;
             }
         }
@@ -494,7 +1294,7 @@ public class SemanticChunker {
     /**
      * Находит оптимальный конец чанка
      */
-    private int findOptimalChunkEnd(List<String> sentences, List<float[]> embeddings,
+    private int findOptimalChunkEnd(List<String> sentences, PairSimilarities similarities,
                                     int start, int maxChunkSize) {
         int currentLength = 0;
         double lastSimilarity = 1.0;
@@ -510,7 +1310,7 @@ public class SemanticChunker {
 
             // Проверяем сходство с предыдущим предложением
             if (i > start) {
-                double similarity = cosineSimilarity(embeddings.get(i-1), embeddings.get(i));
+                double similarity = similarities.get(i - 1, i);
                 if (similarity < similarityThreshold * 0.9) { // Более мягкий порог для продолжения
                     return i;
                 }
@@ -550,42 +1350,17 @@ public class SemanticChunker {
     }
 
     /**
-     * Разбивает эмбеддинги по тем же индексам, что и предложения
-     */
-    private List<List<float[]>> splitEmbeddingsByIndices(List<float[]> embeddings,
-                                                         List<List<String>> sentenceChunks) {
-        List<List<float[]>> result = new ArrayList<>();
-        int currentIndex = 0;
-
-        for (List<String> chunk : sentenceChunks) {
-            List<float[]> embeddingChunk = new ArrayList<>();
-            for (int i = 0; i < chunk.size(); i++) {
-                embeddingChunk.add(embeddings.get(currentIndex + i));
-            }
-            result.add(embeddingChunk);
-            currentIndex += chunk.size();
-        }
-
-        return result;
-    }
-
-    /**
-     * Вычисляет средний эмбеддинг для группы предложений
+     * Вычисляет средний эмбеддинг для группы из count предложений по сумме их
+     * эмбеддингов (в формате хранения чанкера); sum используется как результат
      */
-    private float[] calculateAverageEmbedding(List<float[]> embeddings) {
-        if (embeddings.isEmpty()) return new float[0];
+    private CompactEmbedding calculateAverageEmbedding(float[] sum, int count) {
+        if (count == 0) return CompactEmbedding.of(new float[0], embeddingStorage);
 
-        int dimensions = embeddings.get(0).length;
-        float[] average = new float[dimensions];
-
-        for (float[] embedding : embeddings) {
-            for (int j = 0; j < dimensions; j++) {
-                average[j] += embedding[j];
-            }
-        }
+        int dimensions = sum.length;
+        float[] average = sum;
 
         for (int j = 0; j < dimensions; j++) {
-            average[j] /= embeddings.size();
+            average[j] /= count;
         }
 
         // Нормализуем вектор
@@ -601,30 +1376,115 @@ public class SemanticChunker {
             }
         }
 
-        return average;
+        return CompactEmbedding.of(average, embeddingStorage);
+    }
+
+    /**
+     * Способ группировки предложений в чанки
+     */
+    public enum GroupingStrategy {
+        // Скользящее окно: среднее сходство окна и соседей сравнивается с similarityThreshold
+        SLIDING_WINDOW,
+        // Кластеры похожих предложений (чанк может состоять из несмежных предложений)
+        HIERARCHICAL,
+        // Разрыв, где расстояние соседних предложений выше перцентиля breakpointAmount
+        PERCENTILE,
+        // Разрыв, где расстояние выше среднего на breakpointAmount стандартных отклонений
+        STD_DEV;
+
+        /**
+         * Способ по флагу useSlidingWindow прежних конструкторов
+         */
+        public static GroupingStrategy of(boolean useSlidingWindow) {
+            return useSlidingWindow ? SLIDING_WINDOW : HIERARCHICAL;
+        }
+
+        /**
+         * Способ по имени из конфигурации (sliding-window | hierarchical | percentile | std-dev)
+         */
+        public static GroupingStrategy fromName(String name) {
+            return switch (name.trim().toLowerCase().replace('_', '-')) {
+                case "sliding-window" -> SLIDING_WINDOW;
+                case "hierarchical" -> HIERARCHICAL;
+                case "percentile" -> PERCENTILE;
+                case "std-dev", "standard-deviation" -> STD_DEV;
+                default -> throw new IllegalArgumentException("Неизвестный способ группировки: " + name);
+            };
+        }
+
+        /**
+         * Порог разрыва по умолчанию: 95-й перцентиль или 3 стандартных отклонения
+         */
+        public double defaultBreakpointAmount() {
+            return switch (this) {
+                case PERCENTILE -> 95;
+                case STD_DEV -> 3;
+                default -> 0;
+            };
+        }
     }
 
     /**
      * Класс для представления чанка с текстом, эмбеддингом и позицией
      */
     public static class Chunk {
+        // Текст чанка либо исходный текст, на который чанк ссылается смещениями
         private final String text;
-        private final float[] embedding;
+        private final CharSequence source;
+        private final long startOffset;
+        private final long endOffset;
+        private final CompactEmbedding embedding;
         private final int position;
 
         public Chunk(String text, float[] embedding, int position) {
+            this(text, CompactEmbedding.of(embedding, CompactEmbedding.Storage.FLOAT32), position);
+        }
+
+        public Chunk(String text, CompactEmbedding embedding, int position) {
+            this(text, embedding, position, -1, -1);
+        }
+
+        /**
+         * Чанк с готовым текстом и его границами в исходном тексте (в символах)
+         */
+        public Chunk(String text, CompactEmbedding embedding, int position, long startOffset, long endOffset) {
             this.text = text;
+            this.source = null;
+            this.startOffset = startOffset;
+            this.endOffset = endOffset;
             this.embedding = embedding;
             this.position = position;
         }
 
-        public String getText() { return text; }
-        public float[] getEmbedding() { return embedding; }
+        /**
+         * Чанк, ссылающийся на фрагмент source [startOffset, endOffset): текст создается
+         * при каждом вызове getText (пробельные символы схлопываются, как в предложениях)
+         */
+        public Chunk(CharSequence source, int startOffset, int endOffset, CompactEmbedding embedding, int position) {
+            this.text = null;
+            this.source = source;
+            this.startOffset = startOffset;
+            this.endOffset = endOffset;
+            this.embedding = embedding;
+            this.position = position;
+        }
+
+        public String getText() {
+            return text != null ? text : SentenceSplitter.normalize(source, (int) startOffset, (int) endOffset);
+        }
+        // Начало и конец чанка в исходном тексте (в символах); -1, если чанк не является
+        // непрерывным фрагментом текста (иерархическая кластеризация)
+        public long getStartOffset() { return startOffset; }
+        public long getEndOffset() { return endOffset; }
+        // Распакованная копия эмбеддинга (для записи в базу)
+        public float[] getEmbedding() { return embedding.toFloatArray(); }
+        public CompactEmbedding getCompactEmbedding() { return embedding; }
         public int getPosition() { return position; }
-        public int getLength() { return text.length(); }
+        public int getLength() { return getText().length(); }
 
         @Override
         public String toString() {
+            String text = getText();
             return String.format("Chunk[position=%d, length=%d characters]\n%s\n",
                     position, text.length(), text);
         }
@@ -633,29 +1493,64 @@ public class SemanticChunker {
          * Метод для получения полной информации о чанке
          */
         public String getFullInfo() {
+            String text = getText();
             return String.format("=== CHUNK INFO ===\nPosition: %d\nLength: %d characters\nText:\n%s\n",
                     position, text.length(), text);
         }
     }
 
     /**
-     * Метод для очистки кэша
+     * Метод для очистки кэша (в памяти и на диске)
      */
     public void clearCache() {
         embeddingCache.clear();
+        if (persistentCache != null) {
+            persistentCache.clear();
+        }
     }
 
     /**
      * Метод для получения статистики кэша
      */
     public Map<String, Object> getCacheStats() {
-        Map<String, Object> stats = new HashMap<>();
-        stats.put("size", embeddingCache.size());
-        stats.put("maxSize", 1000);
-        stats.put("hitRate", "N/A"); // Для точной статистики нужен счетчик попаданий
+        Map<String, Object> stats = embeddingCache.getStats();
+        if (persistentCache != null) {
+            stats.put("persistent", persistentCache.getStats());
+        }
         return stats;
     }
 
+    /**
+     * Статистика источника эмбеддингов (лимит одновременных запросов, очередь, перегрузки)
+     */
+    public Map<String, Object> getEmbeddingStats() {
+        return embeddingProvider.getStats();
+    }
+
+    /**
+     * Закрывает постоянный кэш эмбеддингов, сбрасывая его на диск
+     */
+    @Override
+    public void close() throws IOException {
+        if (persistentCache != null) {
+            persistentCache.close();
+        }
+    }
+
+    /**
+     * Получает источник эмбеддингов
+     */
+    public EmbeddingProvider getEmbeddingProvider() {
+        return embeddingProvider;
+    }
+
+    /**
+     * Получает стратегию группировки предложений в чанки
+     */
+    public GroupingStrategy getGroupingStrategy() {
+        return groupingStrategy;
+    }
+
     /**
      * Получает порог схожести
      */
@@ -0,0 +1,250 @@
+package ru.miacomsoft.semantic;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Разделение текста на предложения за один проход без регулярных выражений.
+ *
+ * Граница предложения - последовательность пробельных символов (\s) после [.!?],
+ * за которой идет заглавная кириллическая или латинская буква, кавычка или скобка.
+ * Статический scan находит границы предложений (смещения начала и конца) прямо в
+ * исходном CharSequence, не копируя текст; пробелы внутри предложения схлопываются
+ * (normalize) только при создании строки предложения.
+ *
+ * Экземпляр работает потоково: текст подается частями (feed), готовые предложения
+ * передаются в sink, как только найдена граница следующего; в памяти хранится только
+ * текущее незавершенное предложение. SentenceSink получает также границы предложения
+ * (смещения в символах от начала всего поданного текста)
+ */
+public class SentenceSplitter {
+
+    /**
+     * Получатель границ предложения [start, end)
+     */
+    @FunctionalInterface
+    public interface SpanConsumer {
+        void accept(int start, int end);
+    }
+
+    /**
+     * Получатель предложения и его границ [start, end) во всем поданном тексте
+     */
+    @FunctionalInterface
+    public interface SentenceSink {
+        void accept(String sentence, long start, long end);
+    }
+
+    private final SentenceSink sink;
+    // Незавершенное предложение (исходный текст, без нормализации)
+    private final StringBuilder buffer = new StringBuilder();
+    // Сколько символов текста уже удалено из начала буфера
+    private long consumedChars;
+    private long sentenceCount;
+
+    public SentenceSplitter(Consumer<String> sink) {
+        this((sentence, start, end) -> sink.accept(sentence));
+    }
+
+    public SentenceSplitter(SentenceSink sink) {
+        this.sink = sink;
+    }
+
+    /**
+     * Находит все предложения text и передает их границы в consumer (пробелы по краям
+     * отброшены, пустые предложения пропускаются). Возвращает количество предложений
+     */
+    public static int scan(CharSequence text, SpanConsumer consumer) {
+        int[] count = new int[1];
+        scan(text, 0, 0, true, (start, end) -> {
+            count[0]++;
+            consumer.accept(start, end);
+        });
+        return count[0];
+    }
+
+    /**
+     * Разделяет текст на нормализованные предложения
+     */
+    public static List<String> split(CharSequence text) {
+        List<String> sentences = new ArrayList<>();
+        scan(text, (start, end) -> sentences.add(normalize(text, start, end)));
+        return sentences;
+    }
+
+    /**
+     * Первая граница абзаца не раньше from: начало предложения после пустой строки,
+     * которое scan тоже считает началом предложения. Части текста, разрезанного по
+     * таким границам, делятся на те же предложения, что и весь текст. -1, если границы нет
+     */
+    public static int findParagraphBoundary(CharSequence text, int from) {
+        int length = text.length();
+        int i = from;
+        while (i < length) {
+            if (!isWhitespace(text.charAt(i))) {
+                i++;
+                continue;
+            }
+            int runStart = i;
+            int newlines = 0;
+            while (i < length && isWhitespace(text.charAt(i))) {
+                if (text.charAt(i) == '\n') {
+                    newlines++;
+                }
+                i++;
+            }
+            if (newlines >= 2 && i < length && runStart > 0
+                    && isSentenceEnd(text.charAt(runStart - 1)) && isSentenceStart(text.charAt(i))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Строка предложения [start, end): последовательности пробельных символов
+     * заменяются одним пробелом. Если заменять нечего, копируется только сам фрагмент
+     */
+    public static String normalize(CharSequence text, int start, int end) {
+        int i = start;
+        while (i < end) {
+            char c = text.charAt(i);
+            if (isWhitespace(c) && (c != ' ' || (i + 1 < end && isWhitespace(text.charAt(i + 1))))) {
+                break;
+            }
+            i++;
+        }
+        if (i == end) {
+            return text.subSequence(start, end).toString();
+        }
+
+        StringBuilder sentence = new StringBuilder(end - start);
+        sentence.append(text, start, i);
+        boolean space = false;
+        for (; i < end; i++) {
+            char c = text.charAt(i);
+            if (isWhitespace(c)) {
+                space = true;
+            } else {
+                if (space) {
+                    sentence.append(' ');
+                    space = false;
+                }
+                sentence.append(c);
+            }
+        }
+        return sentence.toString();
+    }
+
+    /**
+     * Обрабатывает очередную часть текста
+     */
+    public void feed(char[] chars, int offset, int length) {
+        int resumeAt = trailingWhitespaceStart();
+        buffer.append(chars, offset, length);
+        drain(resumeAt);
+    }
+
+    public void feed(CharSequence text) {
+        int resumeAt = trailingWhitespaceStart();
+        buffer.append(text);
+        drain(resumeAt);
+    }
+
+    /**
+     * Завершает текст: передает последнее предложение
+     */
+    public void finish() {
+        scan(buffer, 0, trailingWhitespaceStart(), true, this::emit);
+        consumedChars += buffer.length();
+        buffer.setLength(0);
+    }
+
+    /**
+     * Количество переданных предложений
+     */
+    public long getSentenceCount() {
+        return sentenceCount;
+    }
+
+    private void drain(int resumeAt) {
+        int unfinished = scan(buffer, 0, resumeAt, false, this::emit);
+        buffer.delete(0, unfinished);
+        consumedChars += unfinished;
+    }
+
+    private void emit(int start, int end) {
+        sentenceCount++;
+        sink.accept(normalize(buffer, start, end), consumedChars + start, consumedChars + end);
+    }
+
+    /**
+     * Начало пробелов в конце буфера: до них текст уже просканирован окончательно
+     */
+    private int trailingWhitespaceStart() {
+        int i = buffer.length();
+        while (i > 0 && isWhitespace(buffer.charAt(i - 1))) {
+            i--;
+        }
+        return i;
+    }
+
+    /**
+     * Сканирует text с позиции from; start - начало текущего предложения. Пробелы в конце
+     * text без endOfInput не считаются границей: следующий символ еще неизвестен.
+     * Возвращает начало незавершенного предложения (length при endOfInput)
+     */
+    private static int scan(CharSequence text, int start, int from, boolean endOfInput, SpanConsumer consumer) {
+        int length = text.length();
+        int i = from;
+        while (i < length) {
+            if (!isWhitespace(text.charAt(i))) {
+                i++;
+                continue;
+            }
+            int runStart = i;
+            while (i < length && isWhitespace(text.charAt(i))) {
+                i++;
+            }
+            if (i < length && runStart > 0
+                    && isSentenceEnd(text.charAt(runStart - 1)) && isSentenceStart(text.charAt(i))) {
+                emitTrimmed(text, start, runStart, consumer);
+                start = i;
+            }
+        }
+        if (endOfInput) {
+            emitTrimmed(text, start, length, consumer);
+            return length;
+        }
+        return start;
+    }
+
+    /**
+     * Отбрасывает по краям символы до пробела включительно (как String.trim) и передает непустой фрагмент
+     */
+    private static void emitTrimmed(CharSequence text, int start, int end, SpanConsumer consumer) {
+        while (start < end && text.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && text.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        if (start < end) {
+            consumer.accept(start, end);
+        }
+    }
+
+    // Набор символов \s регулярных выражений Java
+    static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    static boolean isSentenceEnd(char c) {
+        return c == '.' || c == '!' || c == '?';
+    }
+
+    static boolean isSentenceStart(char c) {
+        return (c >= 'А' && c <= 'Я') || (c >= 'A' && c <= 'Z') || c == '"' || c == '«' || c == '(';
+    }
+}
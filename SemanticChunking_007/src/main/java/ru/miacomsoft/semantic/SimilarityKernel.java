@@ -0,0 +1,101 @@
+package ru.miacomsoft.semantic;
+
+/**
+ * Вычисление скалярных произведений эмбеддингов, хранящихся подряд в float[]
+ * (строка i матрицы начинается с i * dimensions).
+ *
+ * Для нормализованных векторов (normalize) скалярное произведение равно
+ * косинусному сходству, поэтому нормы не пересчитываются при каждом сравнении.
+ * Реализация get() выбирается при запуске: на JDK Vector API, если JVM запущена с
+ * --add-modules jdk.incubator.vector, иначе скалярная. SIMD ядро накапливает суммы
+ * в float и отличается от скалярного в пределах 1e-6, поэтому им пользуется только
+ * HierarchicalClustering; сходства для группировки по порогу (EmbeddingMatrix,
+ * CompactEmbedding) всегда считает scalar(), чтобы границы чанков не менялись
+ */
+public interface SimilarityKernel {
+
+    /**
+     * Скалярное произведение векторов a[aOffset..] и b[bOffset..] длины dimensions
+     */
+    double dot(float[] a, int aOffset, float[] b, int bOffset, int dimensions);
+
+    /**
+     * Скалярные произведения вектора query[queryOffset..] со строками matrix [fromRow, toRow):
+     * out[outOffset + (row - fromRow)]
+     */
+    default void dotOneToMany(float[] query, int queryOffset, float[] matrix, int fromRow, int toRow,
+                              int dimensions, double[] out, int outOffset) {
+        for (int row = fromRow; row < toRow; row++) {
+            out[outOffset + row - fromRow] = dot(query, queryOffset, matrix, row * dimensions, dimensions);
+        }
+    }
+
+    /**
+     * Скалярные произведения строк a [aFromRow, aToRow) со строками b [bFromRow, bToRow);
+     * результат построчно: out[(i - aFromRow) * (bToRow - bFromRow) + (j - bFromRow)]
+     */
+    default void dotManyToMany(float[] a, int aFromRow, int aToRow, float[] b, int bFromRow, int bToRow,
+                               int dimensions, double[] out) {
+        int columns = bToRow - bFromRow;
+        for (int i = aFromRow; i < aToRow; i++) {
+            dotOneToMany(a, i * dimensions, b, bFromRow, bToRow, dimensions, out, (i - aFromRow) * columns);
+        }
+    }
+
+    /**
+     * Имя реализации для журналов и замеров
+     */
+    String getName();
+
+    /**
+     * Лучшая доступная реализация
+     */
+    static SimilarityKernel get() {
+        return Holder.BEST;
+    }
+
+    /**
+     * Скалярная реализация (сумма произведений в double в порядке компонент)
+     */
+    static SimilarityKernel scalar() {
+        return ScalarSimilarityKernel.INSTANCE;
+    }
+
+    /**
+     * Нормализует вектор на месте; нулевой вектор не изменяется. Возвращает исходную норму
+     */
+    static double normalize(float[] vector, int offset, int dimensions) {
+        double sum = 0.0;
+        for (int i = offset; i < offset + dimensions; i++) {
+            sum += vector[i] * vector[i];
+        }
+        double norm = Math.sqrt(sum);
+        if (norm > 0) {
+            for (int i = offset; i < offset + dimensions; i++) {
+                vector[i] = (float) (vector[i] / norm);
+            }
+        }
+        return norm;
+    }
+
+    final class Holder {
+        private static final SimilarityKernel BEST = load();
+
+        private Holder() {
+        }
+
+        private static SimilarityKernel load() {
+            if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+                return ScalarSimilarityKernel.INSTANCE;
+            }
+            // Класс загружается по имени, чтобы без модуля не было ошибок связывания
+            try {
+                return (SimilarityKernel) Class.forName("ru.miacomsoft.semantic.VectorSimilarityKernel")
+                        .getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                System.err.println("Vector API недоступен, используется скалярное вычисление сходства: " + e);
+                return ScalarSimilarityKernel.INSTANCE;
+            }
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package ru.miacomsoft.semantic;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ToLongBiFunction;
+
+/**
+ * Потокобезопасный LRU кэш с разделением блокировок (lock striping).
+ *
+ * Ключи распределяются по независимым сегментам, у каждого сегмента своя
+ * блокировка и свой LinkedHashMap в порядке доступа. Потоки, обращающиеся
+ * к разным сегментам, не мешают друг другу. Емкость задается в весовых единицах:
+ * количестве записей (вес записи = 1) или байтах (вес считает weigher).
+ * Счетчики попаданий, промахов, вытеснений и времени загрузки точные
+ */
+public class StripedLruCache<K, V> {
+
+    private static final int DEFAULT_STRIPES = 16;
+
+    private final Stripe<K, V>[] stripes;
+    private final long maxWeight;
+    private final ToLongBiFunction<K, V> weigher;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder loadTimeNanos = new LongAdder();
+
+    /**
+     * Кэш, ограниченный количеством записей
+     */
+    public static <K, V> StripedLruCache<K, V> withMaxEntries(long maxEntries) {
+        return new StripedLruCache<>(maxEntries, (key, value) -> 1L, DEFAULT_STRIPES);
+    }
+
+    /**
+     * Кэш, ограниченный суммарным весом записей в байтах
+     */
+    public static <K, V> StripedLruCache<K, V> withMaxBytes(long maxBytes, ToLongBiFunction<K, V> weigher) {
+        return new StripedLruCache<>(maxBytes, weigher, DEFAULT_STRIPES);
+    }
+
+    @SuppressWarnings("unchecked")
+    public StripedLruCache(long maxWeight, ToLongBiFunction<K, V> weigher, int stripeCount) {
+        if (maxWeight <= 0) {
+            throw new IllegalArgumentException("Емкость кэша должна быть положительной: " + maxWeight);
+        }
+        // Мелкий кэш не дробим сильнее, чем на сегменты емкостью от 16 единиц
+        int count = (int) Math.max(1, Math.min(stripeCount, maxWeight / 16));
+        this.stripes = (Stripe<K, V>[]) new Stripe<?, ?>[count];
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+
+        // Остаток от деления раздаем первым сегментам, чтобы сумма емкостей была ровно maxWeight
+        long perStripe = maxWeight / count;
+        long remainder = maxWeight % count;
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new Stripe<>(perStripe + (i < remainder ? 1 : 0));
+        }
+    }
+
+    /**
+     * Возвращает значение или null; обновляет порядок LRU и счетчики
+     */
+    public V get(K key) {
+        Stripe<K, V> stripe = stripeFor(key);
+        V value;
+        stripe.lock.lock();
+        try {
+            value = stripe.map.get(key);
+        } finally {
+            stripe.lock.unlock();
+        }
+
+        if (value != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return value;
+    }
+
+    /**
+     * Возвращает значение или null, не учитывая обращение в счетчиках попаданий и промахов
+     * (для повторной проверки ключа, промах по которому уже учтен)
+     */
+    public V peek(K key) {
+        Stripe<K, V> stripe = stripeFor(key);
+        stripe.lock.lock();
+        try {
+            return stripe.map.get(key);
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * Добавляет или заменяет значение, вытесняя самые давние записи сегмента
+     */
+    public void put(K key, V value) {
+        long weight = weigher.applyAsLong(key, value);
+        Stripe<K, V> stripe = stripeFor(key);
+        stripe.lock.lock();
+        try {
+            // Запись тяжелее целого сегмента не кэшируем, но и прежнее значение ключа устарело
+            if (weight > stripe.maxWeight) {
+                V stale = stripe.map.remove(key);
+                if (stale != null) {
+                    stripe.weight -= weigher.applyAsLong(key, stale);
+                }
+                return;
+            }
+
+            V previous = stripe.map.put(key, value);
+            if (previous != null) {
+                stripe.weight -= weigher.applyAsLong(key, previous);
+            }
+            stripe.weight += weight;
+
+            Iterator<Map.Entry<K, V>> iterator = stripe.map.entrySet().iterator();
+            while (stripe.weight > stripe.maxWeight && iterator.hasNext()) {
+                Map.Entry<K, V> eldest = iterator.next();
+                stripe.weight -= weigher.applyAsLong(eldest.getKey(), eldest.getValue());
+                iterator.remove();
+                evictions.increment();
+            }
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * Учитывает загрузку count значений из источника, занявшую nanos наносекунд
+     */
+    public void recordLoad(int count, long nanos) {
+        loads.add(count);
+        loadTimeNanos.add(nanos);
+    }
+
+    public int size() {
+        int size = 0;
+        for (Stripe<K, V> stripe : stripes) {
+            stripe.lock.lock();
+            try {
+                size += stripe.map.size();
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+        return size;
+    }
+
+    public long weight() {
+        long weight = 0;
+        for (Stripe<K, V> stripe : stripes) {
+            stripe.lock.lock();
+            try {
+                weight += stripe.weight;
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+        return weight;
+    }
+
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    public void clear() {
+        for (Stripe<K, V> stripe : stripes) {
+            stripe.lock.lock();
+            try {
+                stripe.map.clear();
+                stripe.weight = 0;
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Статистика кэша: размер, вес, попадания, промахи, вытеснения, время загрузки
+     */
+    public Map<String, Object> getStats() {
+        long hitCount = hits.sum();
+        long missCount = misses.sum();
+        long loadCount = loads.sum();
+        long loadNanos = loadTimeNanos.sum();
+        long requests = hitCount + missCount;
+
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("size", size());
+        stats.put("weight", weight());
+        stats.put("maxWeight", maxWeight);
+        stats.put("stripes", stripes.length);
+        stats.put("hits", hitCount);
+        stats.put("misses", missCount);
+        stats.put("hitRate", requests > 0 ? (double) hitCount / requests : 0.0);
+        stats.put("evictions", evictions.sum());
+        stats.put("loads", loadCount);
+        stats.put("totalLoadTimeMs", loadNanos / 1_000_000.0);
+        stats.put("averageLoadTimeMs", loadCount > 0 ? loadNanos / 1_000_000.0 / loadCount : 0.0);
+        return stats;
+    }
+
+    private Stripe<K, V> stripeFor(K key) {
+        int hash = key.hashCode();
+        hash ^= (hash >>> 16);
+        return stripes[Math.floorMod(hash, stripes.length)];
+    }
+
+    private static class Stripe<K, V> {
+        final ReentrantLock lock = new ReentrantLock();
+        final LinkedHashMap<K, V> map = new LinkedHashMap<>(16, 0.75f, true);
+        final long maxWeight;
+        long weight;
+
+        Stripe(long maxWeight) {
+            this.maxWeight = maxWeight;
+        }
+    }
+}